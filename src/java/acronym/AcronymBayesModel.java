@@ -1,10 +1,15 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Token;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -19,18 +24,87 @@ public class AcronymBayesModel implements Serializable, AcronymModel {
     private final Map<String,List<String>> expansionMap;
 
     // Maps long forms to their trained word vectors
-    private final Map<String,WordVectorDouble> senseMapMean;
-    private final Map<String,WordVectorDouble> senseMapSd;
+    private final Map<String,SparseVectorDouble> senseMapMean;
+    private final Map<String,SparseVectorDouble> senseMapSd;
 
-    private double gauss(double mean, double sd, double x) {
-        return 1.0 / (Math.sqrt( 2 * Math.PI * Math.pow(sd,2) )) * Math.exp( - Math.pow(x - mean, 2) / (2*Math.pow(sd, 2)) );
-    }
+    // Floor on the log-likelihood of any one feature; also used for features with no variance or never seen for a sense
+    private static final double MIN_LOG_LIK = -100;
+
+    // Scoring tables for each acronym, derived from senseMapMean and senseMapSd; rebuilt when the model is loaded
+    private transient Map<String,GaussianTable> tables;
 
-    public AcronymBayesModel(VectorSpaceDouble vectorSpaceDouble, Map<String, WordVectorDouble> senseMapMean, Map<String, WordVectorDouble> senseMapSd, Map<String, List<String>> expansionMap) {
+    public AcronymBayesModel(VectorSpaceDouble vectorSpaceDouble, Map<String, SparseVectorDouble> senseMapMean, Map<String, SparseVectorDouble> senseMapSd, Map<String, List<String>> expansionMap) {
         this.expansionMap = expansionMap;
         this.senseMapMean = senseMapMean;
         this.senseMapSd = senseMapSd;
         this.vectorSpaceDouble = vectorSpaceDouble;
+        buildTables();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildTables();
+    }
+
+    /**
+     * Log-space Gaussian parameters for every (feature, sense) pair of one acronym
+     * log N(x; mean, sd) = logNorm - (x - mean)^2 * invTwoVar, so scoring needs no transcendental functions
+     */
+    private static class GaussianTable {
+        // Senses of the acronym that were seen in training, in expansion order
+        final String[] senses;
+        // Sorted union of the features of those senses; row r of the arrays below is for features[r]
+        final int[] features;
+        // Flattened [row * senses.length + sense]
+        final double[] mean;
+        final double[] logNorm;
+        final double[] invTwoVar;
+
+        GaussianTable(List<String> senses, Map<String,SparseVectorDouble> senseMapMean, Map<String,SparseVectorDouble> senseMapSd) {
+            this.senses = senses.toArray(new String[senses.size()]);
+            int k = this.senses.length;
+
+            SparseVectorDouble union = new SparseVectorDouble();
+            for(String sense : senses) {
+                senseMapMean.get(sense).forEachNonZero((key, value) -> union.set(key, 1));
+            }
+            features = new int[union.size()];
+            int[] i = {0};
+            union.forEachNonZero((key, value) -> features[i[0]++] = key);
+            Arrays.sort(features);
+
+            mean = new double[features.length * k];
+            logNorm = new double[features.length * k];
+            invTwoVar = new double[features.length * k];
+            for(int r = 0; r < features.length; r++) {
+                for(int s = 0; s < k; s++) {
+                    double sd = senseMapSd.get(this.senses[s]).get(features[r]);
+                    mean[r * k + s] = senseMapMean.get(this.senses[s]).get(features[r]);
+                    if(sd > 0) {
+                        logNorm[r * k + s] = -Math.log(sd) - 0.5 * Math.log(2 * Math.PI);
+                        invTwoVar[r * k + s] = 1.0 / (2 * sd * sd);
+                    }
+                    else {
+                        // A zero-width Gaussian: the density was never finite, so this always scored the floor
+                        logNorm[r * k + s] = MIN_LOG_LIK;
+                        invTwoVar[r * k + s] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    private void buildTables() {
+        tables = new HashMap<>();
+        for(Map.Entry<String,List<String>> e : expansionMap.entrySet()) {
+            List<String> trainedSenses = new ArrayList<>();
+            for(String sense : e.getValue()) {
+                if(senseMapMean.containsKey(sense)) {
+                    trainedSenses.add(sense);
+                }
+            }
+            tables.put(e.getKey(), new GaussianTable(trainedSenses, senseMapMean, senseMapSd));
+        }
     }
 
     public List<String> getExpansions(Token token) {
@@ -57,8 +131,17 @@ public class AcronymBayesModel implements Serializable, AcronymModel {
 
     @Override
     public String findBestSense(List<Token> context, Token token) {
+        return findBestSense(AcronymModel.standardForm(token), () -> vectorSpaceDouble.vectorize(context, token));
+    }
+
+    @Override
+    public String findBestSense(CompactDocument document, int index) {
+        return findBestSense(AcronymModel.standardFormString(document.getTerm(index)),
+                () -> vectorSpaceDouble.vectorize(document, 0, document.size(), index));
+    }
+
+    private String findBestSense(String acronym, Supplier<SparseVectorDouble> contextVector) {
 
-        String acronym = AcronymModel.standardForm(token);
         if(!expansionMap.containsKey(acronym)) return "";
 
         if(expansionMap.get(acronym).size() == 1) {
@@ -68,28 +151,33 @@ public class AcronymBayesModel implements Serializable, AcronymModel {
         double best = -Double.MAX_VALUE;
         String winner = "acronym_expander_not_working";
 
-        WordVectorDouble vector = vectorSpaceDouble.vectorize(context, token);
+        SparseVectorDouble vector = contextVector.get();
 
-        // Loop through all possible senses for this acronym
-        for(String sense : expansionMap.get(acronym)) {
-            if(senseMapMean.containsKey(sense)) {
-                WordVectorDouble mean = senseMapMean.get(sense);
-                WordVectorDouble sd = senseMapSd.get(sense);
-
-                double score = 0;
-
-                for(int key : vector.getKeySet()) {
-                    double minLogLik = -100;
-                    double addScore = gauss(mean.get(key), sd.get(key), vector.get(key));
-                    addScore = Math.log(addScore);
-                    if(!(addScore >= minLogLik)) addScore = minLogLik;
-                    score += addScore;
-                }
+        GaussianTable table = tables.get(acronym);
+        int k = table.senses.length;
+        double[] scores = new double[k];
 
-                if (score > best) {
-                    best = score;
-                    winner = sense;
+        vector.forEachNonZero((key, x) -> {
+            int r = Arrays.binarySearch(table.features, key);
+            if(r < 0) {
+                // No sense of this acronym has seen this feature
+                for(int s = 0; s < k; s++) {
+                    scores[s] += MIN_LOG_LIK;
                 }
+                return;
+            }
+            int offset = r * k;
+            for(int s = 0; s < k; s++) {
+                double d = x - table.mean[offset + s];
+                scores[s] += Math.max(MIN_LOG_LIK, table.logNorm[offset + s] - d * d * table.invTwoVar[offset + s]);
+            }
+        });
+
+        // Loop through all possible senses for this acronym
+        for(int s = 0; s < k; s++) {
+            if (scores[s] > best) {
+                best = scores[s];
+                winner = table.senses[s];
             }
         }
         return winner;
@@ -1,7 +1,8 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Document;
-import model.Token;
+import model.TermDictionary;
 
 import java.io.*;
 import java.util.*;
@@ -24,10 +25,12 @@ public class AcronymBayesModelTrainer implements AcronymModelTrainer {
     private double maxDist = DEFAULT_MAX_DIST;
 
     private VectorSpaceDouble vectorSpace = new VectorSpaceDouble(DEFAULT_MAX_DIST);
-    private Map<String,WordVectorDouble> senseMapMean = new HashMap<>();
-    private Map<String,WordVectorDouble> senseMapSd = new HashMap<>();
+    private final TermDictionary terms = new TermDictionary();
+    private Map<String,SparseVectorDouble> senseMapMean = new HashMap<>();
+    private Map<String,SparseVectorDouble> senseMapSd = new HashMap<>();
 
-    private Map<String,List<WordVectorDouble>> senseMapAll = new HashMap<>();
+    // Running per-feature statistics for each sense, updated as documents are added
+    private Map<String,SenseStatistics> senseStats = new HashMap<>();
 
     // How counts will be transformed (default is sqrt to flatten out the vectors a bit)
     private static Function<Double,Double> transformCounts = (x) -> x;
@@ -66,6 +69,13 @@ public class AcronymBayesModelTrainer implements AcronymModelTrainer {
         uniqueIdMap = uniqueIdMapBuilder;
     }
 
+    /** @see #newShard() */
+    private AcronymBayesModelTrainer(AcronymBayesModelTrainer settings) {
+        expansionMap = settings.expansionMap;
+        uniqueIdMap = settings.uniqueIdMap;
+        maxDist = settings.maxDist;
+    }
+
     /**
      * Call this after all documents have been added using addDocumentToModel(Document)
      * This will finalize the vectors and put them all into a knew AcronymBayesModel, which can be used or serialized
@@ -73,30 +83,12 @@ public class AcronymBayesModelTrainer implements AcronymModelTrainer {
      */
     public AcronymBayesModel getModel() {
         vectorSpace.finishTraining();
-        for(String sense : senseMapAll.keySet()) {
-            Map<Integer,Double> meanVector = new HashMap<>();
-            Map<Integer,Double> sdVector = new HashMap<>();
-
-            int maxKey = vectorSpace.numWords();
-            double n = senseMapAll.get(sense).size();
-
-            for(int i=0; i<maxKey; i++) {
-                double sum = 0;
-                for(WordVectorDouble vec : senseMapAll.get(sense)) {
-                    sum += vec.get(i);
-                }
-                if(sum != 0) {
-                    double mean = sum / n;
-                    meanVector.put(i, mean);
-                    double sumDist = 0;
-                    for (WordVectorDouble vec : senseMapAll.get(sense)) {
-                        sumDist += Math.pow(mean - vec.get(i), 2);
-                    }
-                    sdVector.put(i, Math.sqrt(sumDist / n));
-                }
-            }
-            senseMapMean.put(sense, new WordVectorDouble(meanVector));
-            senseMapSd.put(sense, new WordVectorDouble(sdVector));
+        for(Map.Entry<String,SenseStatistics> e : senseStats.entrySet()) {
+            SparseVectorDouble meanVector = new SparseVectorDouble();
+            SparseVectorDouble sdVector = new SparseVectorDouble();
+            e.getValue().finish(meanVector, sdVector);
+            senseMapMean.put(e.getKey(), meanVector);
+            senseMapSd.put(e.getKey(), sdVector);
         }
 
         return new AcronymBayesModel(vectorSpace, senseMapMean, senseMapSd, expansionMap);
@@ -107,49 +99,93 @@ public class AcronymBayesModelTrainer implements AcronymModelTrainer {
      * @param document
      */
     public void addDocumentToModel(Document document) {
+        addDocumentToModel(new CompactDocument(document, terms));
+    }
+
+    /**
+     * Adds a tokenized document to the model, which should have been initialized already
+     * @param document
+     */
+    public void addDocumentToModel(CompactDocument document) {
 
         // Maximum number of words to look at (needn't look much farther than maxDist)
         int maxSize = (int) (maxDist * 1.5);
 
-        // These lists will all be the same length
-        // Tokens that are unique IDs, which will be used for training
-        List<Token> tokensOfInterest = new ArrayList<>();
-        // Chunks where our tokens of interest will be
-        List<Integer> startPositions = new ArrayList<>();
-        List<Integer> endPositions = new ArrayList<>();
-
-        List<Token> allTokens = new ArrayList<>();
-
-        // Our position in the document, for building the lists
-        int i = 0;
-
-        // Find tokens of interest in the document and their context; populate the above lists
-        for(Token token : document.getTokens()) {
-            allTokens.add(token);
-            if(uniqueIdMap.containsKey(token.getText())) {
-                tokensOfInterest.add(token);
-                startPositions.add(i - maxSize);
-                endPositions.add(i + maxSize + 1);
-            }
-            i++;
-        }
+        // Go through every token of interest (a unique ID), calculate a vector for it from its context, and add it to
+        // what has been found for that sense
+        for(int i=0; i<document.size(); i++) {
+            String senseEnglish = uniqueIdMap.get(document.getTerm(i));
+            if(senseEnglish == null) continue;
 
-        // Now go through to every token of interest, calculate a vector for it, and add it to the vectors already
-        // found for that sense.
-        i = 0;
-        for(Token tokenOfInterest : tokensOfInterest) {
-            String senseEnglish = uniqueIdMap.get(tokenOfInterest.getText());
-            int start = startPositions.get(i);
-            int end = endPositions.get(i);
+            int start = i - maxSize;
+            int end = i + maxSize + 1;
             if(start < 0) start = 0;
-            if(end > allTokens.size()) end = allTokens.size() - 1;
+            if(end > document.size()) end = document.size() - 1;
 
-            WordVectorDouble calculatedVector = vectorSpace.vectorize(allTokens.subList(start, end), tokenOfInterest);
+            SparseVectorDouble calculatedVector = vectorSpace.vectorize(document, start, end, i);
 
-            senseMapAll.putIfAbsent(senseEnglish, new ArrayList<>());
-            senseMapAll.get(senseEnglish).add(calculatedVector);
+            senseStats.putIfAbsent(senseEnglish, new SenseStatistics());
+            senseStats.get(senseEnglish).add(calculatedVector);
+        }
+    }
+
+    /**
+     * Welford running mean and variance of every feature over all the context vectors of one sense
+     * Only non-zero observations are visited; the zeros of vectors that lack a feature are folded in when finishing
+     */
+    private static class SenseStatistics {
+
+        // Number of vectors seen for this sense
+        private int n = 0;
+
+        // For each feature: number of vectors in which it was non-zero, and the mean and sum of squared deviations
+        // of those non-zero values
+        private final SparseVectorDouble counts = new SparseVectorDouble();
+        private final SparseVectorDouble means = new SparseVectorDouble();
+        private final SparseVectorDouble m2s = new SparseVectorDouble();
+
+        void add(DoubleVector vector) {
+            n++;
+            vector.forEachNonZero((key, x) -> {
+                double k = counts.get(key) + 1;
+                double mean = means.get(key);
+                double delta = x - mean;
+                mean += delta / k;
+                counts.set(key, k);
+                means.set(key, mean);
+                m2s.add(key, delta * (x - mean));
+            });
+        }
 
-            i++;
+        // Combine with the statistics of other vectors (whose features are renumbered by newIndex), using Chan et
+        // al.'s pairwise update for each feature
+        void merge(SenseStatistics other, int[] newIndex) {
+            n += other.n;
+            other.counts.forEachNonZero((otherKey, kB) -> {
+                int key = newIndex[otherKey];
+                double kA = counts.get(key);
+                double meanA = means.get(key);
+                double meanB = other.means.get(otherKey);
+                double k = kA + kB;
+                double delta = meanB - meanA;
+                counts.set(key, k);
+                means.set(key, meanA + delta * kB / k);
+                m2s.set(key, m2s.get(key) + other.m2s.get(otherKey) + delta * delta * kA * kB / k);
+            });
+        }
+
+        // Fill in the population mean and standard deviation (over all n vectors) of every feature with a non-zero mean
+        void finish(SparseVectorDouble meanVector, SparseVectorDouble sdVector) {
+            counts.forEachNonZero((key, k) -> {
+                double nonZeroMean = means.get(key);
+                // Merge the k non-zero values with the n-k implicit zeros (Chan et al.'s pairwise update)
+                double mean = nonZeroMean * k / n;
+                if(mean != 0) {
+                    double m2 = m2s.get(key) + nonZeroMean * nonZeroMean * k * (n - k) / n;
+                    meanVector.set(key, mean);
+                    sdVector.set(key, Math.sqrt(m2 / n));
+                }
+            });
         }
     }
 
@@ -161,4 +197,22 @@ public class AcronymBayesModelTrainer implements AcronymModelTrainer {
         transformCounts = function;
     }
 
+    @Override
+    public AcronymBayesModelTrainer newShard() {
+        return new AcronymBayesModelTrainer(this);
+    }
+
+    @Override
+    public void merge(AcronymModelTrainer shard) {
+        if(!(shard instanceof AcronymBayesModelTrainer)) {
+            throw new IllegalArgumentException("Can only merge shards made by newShard");
+        }
+        AcronymBayesModelTrainer other = (AcronymBayesModelTrainer) shard;
+        // Renumber the shard's words into this trainer's vector space
+        int[] newIndex = vectorSpace.merge(other.vectorSpace);
+        for(Map.Entry<String,SenseStatistics> e : other.senseStats.entrySet()) {
+            senseStats.computeIfAbsent(e.getKey(), x -> new SenseStatistics()).merge(e.getValue(), newIndex);
+        }
+    }
+
 }
@@ -0,0 +1,302 @@
+package acronym;
+
+import model.CompactDocument;
+import model.Document;
+import model.TermDictionary;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Everything the logistic regression and SVM trainers share: both collect a normalized context vector per training
+ * example and train one GradientDescentModel per acronym, differing only in the model type
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public abstract class AcronymGradientDescentModelTrainer implements AcronymModelTrainer {
+
+    // These are loaded from text files
+    // expansionMap works the same as in AcronymVectorModel
+    // uniqueIdMap maps unique identifying strings of the acronym long forms (as appear in the preprocessed training
+    // text file) to their English forms
+    private final Map<String,List<String>> expansionMap;
+    private final Map<String,String> uniqueIdMap;
+
+    // Number of tokens to look back/ahead when calculating word vectors
+    private final static double DEFAULT_MAX_DIST = 9;
+    private double maxDist = DEFAULT_MAX_DIST;
+
+    // logistic or svm (see GradientDescentModel)
+    private final String modelType;
+
+    // How many iterations of gradient descent to go through and the learning rate to use
+    // Because these are very high-dimensional (tens of thousands) and low-valued (<1) vectors, learning rate is large
+    // With a convergenceTolerance above zero, numReps is only an upper bound: training for an acronym stops once its
+    // training accuracy changes by no more than the tolerance for convergencePatience epochs in a row
+    private int numReps = 100;
+    private int learningRate = 10;
+    private double convergenceTolerance = 0;
+    private int convergencePatience = GradientDescentModel.DEFAULT_PATIENCE;
+
+    // If true, each acronym's weights only cover the features seen in its own training examples
+    // (rather than a numSenses x vocabulary matrix per acronym)
+    private boolean compactWeights = true;
+
+    // How many acronyms' classifiers to train concurrently
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    // Acronyms with at least hogwildMinExamples examples are each trained by numHogwildThreads threads at once (see
+    // GradientDescentModel.setNumThreads). They are trained one after another before the per-acronym pool starts, so
+    // the two kinds of threads never compete for cores. One thread (the default) keeps training reproducible
+    public static final int DEFAULT_HOGWILD_MIN_EXAMPLES = 10000;
+    private int numHogwildThreads = 1;
+    private int hogwildMinExamples = DEFAULT_HOGWILD_MIN_EXAMPLES;
+
+    private VectorSpaceDouble vectorSpace = new VectorSpaceDouble(maxDist);
+    private final TermDictionary terms = new TermDictionary();
+    private Map<String,List<SparseVectorDouble>> senseMap = new HashMap<>();
+
+    private Map<String,GradientDescentModel> models = new HashMap<>();
+
+    protected AcronymGradientDescentModelTrainer(String expansionMapFile, String uniqueIdMapFile, String modelType) throws IOException {
+        this.modelType = modelType;
+        Map<String,List<String>> expansionMapBuilder = new HashMap<>();
+        Map<String,String> uniqueIdMapBuilder = new HashMap<>();
+
+        InputStream inputStream = new FileInputStream(expansionMapFile);
+        BufferedReader fileReader = new BufferedReader(new InputStreamReader(inputStream));
+        String nextLine;
+        while ((nextLine = fileReader.readLine()) != null) {
+            List<String> fields = Arrays.asList(nextLine.split("\\|"));
+            if(fields.size() >= 1) {
+                String acronym = AcronymModel.standardFormString(fields.get(0));
+                List<String> senses = new ArrayList<>(fields.subList(1,fields.size()));
+                expansionMapBuilder.put(acronym, senses);
+            }
+        }
+
+        InputStream inputStreamB = new FileInputStream(uniqueIdMapFile);
+        BufferedReader fileReaderB = new BufferedReader(new InputStreamReader(inputStreamB));
+        while ((nextLine = fileReaderB.readLine()) != null) {
+            String[] fields = nextLine.split("\\|");
+            uniqueIdMapBuilder.put(fields[0], fields[1]);
+        }
+
+        expansionMap = expansionMapBuilder;
+        uniqueIdMap = uniqueIdMapBuilder;
+    }
+
+    /** @see #newShard() */
+    protected AcronymGradientDescentModelTrainer(AcronymGradientDescentModelTrainer settings) {
+        modelType = settings.modelType;
+        expansionMap = settings.expansionMap;
+        uniqueIdMap = settings.uniqueIdMap;
+        maxDist = settings.maxDist;
+        numReps = settings.numReps;
+        learningRate = settings.learningRate;
+        convergenceTolerance = settings.convergenceTolerance;
+        convergencePatience = settings.convergencePatience;
+        compactWeights = settings.compactWeights;
+        numThreads = settings.numThreads;
+        numHogwildThreads = settings.numHogwildThreads;
+        hogwildMinExamples = settings.hogwildMinExamples;
+        vectorSpace = new VectorSpaceDouble(maxDist);
+    }
+
+    /**
+     * Call this after all documents have been added using addDocumentToModel(Document)
+     * This will finalize the vectors and put them all into a new AcronymModel, which can be used or serialized
+     * @return
+     */
+    public AcronymSvmModel getModel() {
+        vectorSpace.finishTraining();
+
+        System.out.println(expansionMap.size() + " acronyms total");
+
+        for (List<SparseVectorDouble> vectorList : senseMap.values()) {
+            for (SparseVectorDouble vector : vectorList) {
+                vector.normVector();
+            }
+        }
+
+        // Acronyms that need a classifier, with the number of training examples for each
+        List<String> toTrain = new ArrayList<>();
+        Map<String,Integer> numExamples = new HashMap<>();
+
+        for (String acronym : expansionMap.keySet()) {
+
+            // determine which senses we actually saw, and count the total number of training examples
+            List<String> presentSenses = new ArrayList<>();
+            int totalExamples = 0;
+            for(String sense : expansionMap.get(acronym)) {
+                if(senseMap.containsKey(sense)) {
+                    presentSenses.add(sense);
+                    totalExamples += senseMap.get(sense).size();
+                }
+            }
+            expansionMap.put(acronym, presentSenses);
+
+            if(expansionMap.get(acronym).size() > 1) {
+                toTrain.add(acronym);
+                numExamples.put(acronym, totalExamples);
+            }
+        }
+
+        // Every acronym's problem is independent, so train them all at once. Start the biggest ones first so that a
+        // single large acronym isn't left running on its own at the end
+        toTrain.sort((a, b) -> numExamples.get(b) - numExamples.get(a));
+
+        // The largest acronyms may instead be given several threads each, one acronym at a time
+        int first = 0;
+        if(numHogwildThreads > 1) {
+            while(first < toTrain.size() && numExamples.get(toTrain.get(first)) >= hogwildMinExamples) {
+                String acronym = toTrain.get(first++);
+                models.put(acronym, trainAcronym(acronym, numHogwildThreads));
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        try {
+            Map<String,Future<GradientDescentModel>> futures = new HashMap<>();
+            for (String acronym : toTrain.subList(first, toTrain.size())) {
+                futures.put(acronym, pool.submit(() -> trainAcronym(acronym, 1)));
+            }
+            for (Map.Entry<String,Future<GradientDescentModel>> e : futures.entrySet()) {
+                models.put(e.getKey(), e.getValue().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to train acronym classifiers", e);
+        } finally {
+            pool.shutdown();
+        }
+        return new AcronymSvmModel(vectorSpace, expansionMap, models);
+    }
+
+    // Build and train the classifier for one acronym; only reads shared state, so several can run at once
+    private GradientDescentModel trainAcronym(String acronym, int threads) {
+
+        // Collect all examples of this sense into a list of lists and have the model train them all
+        List<List<DoubleVector>> allVectors = new ArrayList<>();
+        for(String sense : expansionMap.get(acronym)) {
+            List<DoubleVector> thisSense = new ArrayList<>();
+            for(SparseVectorDouble v : senseMap.get(sense)) {
+                thisSense.add(v);
+            }
+            allVectors.add(thisSense);
+        }
+
+        GradientDescentModel model;
+        if(compactWeights) {
+            model = new GradientDescentModel(allVectors, modelType);
+        }
+        else {
+            model = new GradientDescentModel(vectorSpace.numWords(), expansionMap.get(acronym).size(), modelType);
+        }
+        model.setLearningRate(learningRate);
+        model.setConvergence(convergenceTolerance, convergencePatience);
+        model.setNumThreads(threads);
+        model.trainAll(allVectors, numReps);
+        return model;
+    }
+
+    /**
+     * Maximum number of gradient descent iterations for each acronym's classifier (default 100)
+     * @param numReps number of iterations
+     */
+    public void setNumReps(int numReps) {
+        this.numReps = numReps;
+    }
+
+    /**
+     * Early stopping for each acronym's classifier; a tolerance of zero (the default) always runs all iterations
+     * @param tolerance largest change in training accuracy between epochs that counts as a plateau
+     * @param patience number of consecutive plateaued epochs after which training stops
+     */
+    public void setConvergence(double tolerance, int patience) {
+        convergenceTolerance = tolerance;
+        convergencePatience = patience;
+    }
+
+    /**
+     * Number of acronym classifiers to train at once (defaults to the number of processors)
+     * @param numThreads size of the training thread pool
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Train the largest acronyms' classifiers with several threads each, Hogwild-style (lock-free, so results vary
+     * slightly from run to run). These acronyms are trained one at a time before the others are trained in parallel
+     * @param numThreads threads per large acronym (1, the default, turns this off)
+     * @param minExamples number of training examples that makes an acronym large enough
+     */
+    public void setHogwildThreads(int numThreads, int minExamples) {
+        numHogwildThreads = numThreads;
+        hogwildMinExamples = minExamples;
+    }
+
+    /**
+     * Whether to give each acronym's model weights only for the features seen in its training data (default true)
+     * @param compactWeights false to allocate a full-vocabulary weight matrix per acronym
+     */
+    public void setCompactWeights(boolean compactWeights) {
+        this.compactWeights = compactWeights;
+    }
+
+    /**
+     * Adds a tokenized document to the model, which should have been initialized already
+     * @param document
+     */
+    public void addDocumentToModel(Document document) {
+        addDocumentToModel(new CompactDocument(document, terms));
+    }
+
+    /**
+     * Adds a tokenized document to the model, which should have been initialized already
+     * @param document
+     */
+    public void addDocumentToModel(CompactDocument document) {
+
+        // Maximum number of words to look at (needn't look much farther than maxDist, probably)
+        int maxSize = (int) (maxDist * 1.5);
+
+        // Go through every token of interest (a unique ID), calculate a vector for it from its context, and add it to
+        // what has been found for that sense
+        for(int i=0; i<document.size(); i++) {
+            String senseEnglish = uniqueIdMap.get(document.getTerm(i));
+            if(senseEnglish == null) continue;
+
+            int start = i - maxSize;
+            int end = i + maxSize + 1;
+            if(start < 0) start = 0;
+            if(end > document.size()) end = document.size() - 1;
+
+            SparseVectorDouble calculatedVector = vectorSpace.vectorize(document, start, end, i);
+
+            senseMap.putIfAbsent(senseEnglish, new ArrayList<>());
+            senseMap.get(senseEnglish).add(calculatedVector);
+        }
+    }
+
+    @Override
+    public void merge(AcronymModelTrainer shard) {
+        if(shard.getClass() != getClass()) {
+            throw new IllegalArgumentException("Can only merge shards made by newShard");
+        }
+        AcronymGradientDescentModelTrainer other = (AcronymGradientDescentModelTrainer) shard;
+        // Renumber the shard's words into this trainer's vector space; its examples follow this trainer's own
+        int[] newIndex = vectorSpace.merge(other.vectorSpace);
+        for(Map.Entry<String,List<SparseVectorDouble>> e : other.senseMap.entrySet()) {
+            List<SparseVectorDouble> examples = senseMap.computeIfAbsent(e.getKey(), x -> new ArrayList<>());
+            for(SparseVectorDouble vector : e.getValue()) {
+                examples.add(new SparseVectorDouble(vector, newIndex));
+            }
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Token;
 
 import java.io.FileInputStream;
@@ -24,6 +25,19 @@ public interface AcronymModel {
 
     String findBestSense(List<Token> allTokens, Token token);
 
+    /**
+     * Same as findBestSense(List, Token), for the token at a given position of a compact document
+     * Models that can work from the compact form directly override this; by default, Tokens are built for the whole document
+     * Models take the context vector from a Supplier, so that nothing is vectorized for acronyms they can answer without one
+     * @param document the document the acronym appears in
+     * @param index position of the acronym in the document
+     * @return the best sense
+     */
+    default String findBestSense(CompactDocument document, int index) {
+        List<Token> tokens = document.getTokens();
+        return findBestSense(tokens, tokens.get(index));
+    }
+
     /**
      * Gets a standardized form of a token, derived from Token.normalForm
      * @param t
@@ -41,10 +55,31 @@ public interface AcronymModel {
      * @return
      */
     static String standardFormString(String s) {
-        // Collapse numbers
-        if(s.matches("[0-9]")) return "single_digit";
-        if(s.matches("[0-9]*\\.[0-9]+")) return "decimal_number";
-        if(s.matches("[0-9][0-9,]+")) return "big_number";
+        // Collapse numbers. This runs on every context token, so the character classes are checked by hand:
+        // single_digit is [0-9], decimal_number is [0-9]*\.[0-9]+, and big_number is [0-9][0-9,]+
+        int length = s.length();
+        int digits = 0;
+        int commas = 0;
+        int dots = 0;
+        int lastDot = -1;
+        for(int i=0; i<length; i++) {
+            char c = s.charAt(i);
+            if(c >= '0' && c <= '9') {
+                digits++;
+            }
+            else if(c == ',') {
+                commas++;
+            }
+            else if(c == '.') {
+                dots++;
+                lastDot = i;
+            }
+        }
+        if(digits + commas + dots == length && length > 0) {
+            if(length == 1 && digits == 1) return "single_digit";
+            if(commas == 0 && dots == 1 && lastDot < length - 1) return "decimal_number";
+            if(dots == 0 && length > 1 && s.charAt(0) != ',') return "big_number";
+        }
         // Collapse certain symbols
         s = s.replace('&','/');
         s = s.replace('+','/');
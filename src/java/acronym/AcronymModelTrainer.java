@@ -1,5 +1,6 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Document;
 
 /**
@@ -14,6 +15,30 @@ public interface AcronymModelTrainer {
 
     AcronymModel getModel();
 
+    /**
+     * Adds a tokenized document. Trainers work on CompactDocuments, so a Document is converted first, its token
+     * texts interned in a TermDictionary that the trainer keeps for that purpose
+     * @param document
+     */
     void addDocumentToModel(Document document);
 
+    void addDocumentToModel(CompactDocument document);
+
+    /**
+     * A new, empty trainer with the same settings as this one, to be given a separate part of the training data
+     * (so that parts can be trained in parallel) and then merged back in
+     * Implementations make it with a private constructor that shares the maps loaded from text files (which
+     * training only reads), copies every setting, and starts with an empty vector space
+     * @return the new trainer
+     */
+    AcronymModelTrainer newShard();
+
+    /**
+     * Add the training done by a shard (from newShard) into this trainer. Merging shards in the order of the data
+     * they were given is equivalent to training on all of it with one trainer (up to rounding of floating-point sums)
+     * @param shard a trainer made by this trainer's newShard, which shouldn't be used afterwards
+     * @throws IllegalArgumentException if the shard is a different kind of trainer
+     */
+    void merge(AcronymModelTrainer shard);
+
 }
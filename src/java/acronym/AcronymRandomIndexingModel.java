@@ -1,14 +1,14 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Token;
+import semanticindexing.IndexHash;
 import semanticindexing.RandomIndexingContext;
-import semanticindexing.RandomIndexingVector;
+import semanticindexing.RandomIndexingVectorArray;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -19,18 +19,34 @@ public class AcronymRandomIndexingModel implements AcronymModel, Serializable {
     private final Map<String,List<String>> acronymExpansions;
 
     // Maps senses to vectors
-    private final Map<String,RandomIndexingVector> senseMap;
+    private final Map<String,RandomIndexingVectorArray> senseMap;
 
-    // Maps words to RI contexts (large set, small data)
-    private final List<RandomIndexingContext> dictionary;
+    // Each word's RI context is generated from (seed, word number) when needed, so none are stored
+    private final long seed;
+    private final int dimensionality;
+    private final int nonZeroValues;
 
     private final VectorSpaceDouble vectorSpace;
 
-    public AcronymRandomIndexingModel(VectorSpaceDouble vectorSpace, List<RandomIndexingContext> dictionary, Map<String,RandomIndexingVector> senseMap, Map<String, List<String>> acronymExpansions) {
+    public AcronymRandomIndexingModel(VectorSpaceDouble vectorSpace, long seed, int dimensionality, int nonZeroValues, Map<String,RandomIndexingVectorArray> senseMap, Map<String, List<String>> acronymExpansions) {
         this.acronymExpansions = acronymExpansions;
         this.senseMap = senseMap;
         this.vectorSpace = vectorSpace;
-        this.dictionary = dictionary;
+        this.seed = seed;
+        this.dimensionality = dimensionality;
+        this.nonZeroValues = nonZeroValues;
+    }
+
+    /**
+     * The RI context of a word, as used by the trainer
+     * @param seed the model's seed
+     * @param dimensionality dimensionality of the RI vectors
+     * @param nonZeroValues number of 1s (and of -1s) in each context
+     * @param word the word's index in the vector space
+     * @return the word's context
+     */
+    static RandomIndexingContext indexContext(long seed, int dimensionality, int nonZeroValues, int word) {
+        return new RandomIndexingContext(dimensionality, nonZeroValues, IndexHash.random(seed, word));
     }
 
     public String standardForm(Token token) {
@@ -47,8 +63,17 @@ public class AcronymRandomIndexingModel implements AcronymModel, Serializable {
 
     @Override
     public String findBestSense(List<Token> context, Token token) {
+        return findBestSense(AcronymModel.standardForm(token), () -> vectorSpace.vectorizeWeighted(context, token, false));
+    }
+
+    @Override
+    public String findBestSense(CompactDocument document, int index) {
+        return findBestSense(AcronymModel.standardFormString(document.getTerm(index)),
+                () -> vectorSpace.vectorizeWeighted(document, 0, document.size(), index, false));
+    }
+
+    private String findBestSense(String acronym, Supplier<SparseVectorDouble> contextVector) {
 
-        String acronym = AcronymModel.standardForm(token);
         if(!acronymExpansions.containsKey(acronym)) return "";
 
         if(acronymExpansions.get(acronym).size() == 1) {
@@ -58,46 +83,41 @@ public class AcronymRandomIndexingModel implements AcronymModel, Serializable {
         double best = -Double.MAX_VALUE;
         String winner = "acronym_expander_not_working";
 
-//        RandomIndexingVector vector = vectorize(context, token).thresholdAtOne();
-        RandomIndexingVector vector = vectorize(context, token);
-
-        // Loop through all possible senses for this acronym
+        List<String> senses = new ArrayList<>();
+        List<RandomIndexingVectorArray> senseVectors = new ArrayList<>();
         for(String sense : acronymExpansions.get(acronym)) {
             if(senseMap.containsKey(sense)) {
-//                RandomIndexingVector compVec = senseMap.get(sense).thresholdAtOne();
-                RandomIndexingVector compVec = senseMap.get(sense);
-                double score = vector.dot(compVec);
-
-                if (score > best) {
-                    best = score;
-                    winner = sense;
-                }
+                senses.add(sense);
+                senseVectors.add(senseMap.get(sense));
             }
         }
-        return winner;
-    }
-
-    private RandomIndexingVector vectorize(List<Token> context, Token tokenOfInterest) {
 
-        assert context.contains(tokenOfInterest);
+        double[] scores = scoreSenses(contextVector.get(), senseVectors);
 
-        DoubleVector wordVec = vectorSpace.vectorize(context, tokenOfInterest);
-
-        return wordToRiVec(wordVec);
+        // Loop through all possible senses for this acronym
+        for(int s=0; s<senses.size(); s++) {
+            if (scores[s] > best) {
+                best = scores[s];
+                winner = senses.get(s);
+            }
+        }
+        return winner;
     }
 
-    private RandomIndexingVector wordToRiVec(DoubleVector wordVec) {
+    // Score of the context against each of the acronym's senses. Projecting into RI space is linear, so a sense's
+    // score is the idf-weighted sum of each word's RI context dotted with the sense vector: a few indexed reads per
+    // word and sense, without building an RI vector for the context or scoring any other acronym's senses
+    private double[] scoreSenses(DoubleVector wordVec, List<RandomIndexingVectorArray> senseVectors) {
 
-        RandomIndexingVector riv = new RandomIndexingVector();
-
-        for(int key : wordVec.getKeySet()) {
-            double weight = wordVec.get(key) * vectorSpace.getIdf().get(key);
-            if(key >= 0 && key < dictionary.size()) {
-                riv.addContext(dictionary.get(key), weight);
+        double[] scores = new double[senseVectors.size()];
+        wordVec.forEachNonZero((key, weight) -> {
+            RandomIndexingContext context = indexContext(seed, dimensionality, nonZeroValues, key);
+            for(int s=0; s<scores.length; s++) {
+                scores[s] += weight * senseVectors.get(s).dot(context);
             }
-        }
+        });
 
-        return riv;
+        return scores;
     }
 
     /**
@@ -1,9 +1,10 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Document;
-import model.Token;
-import semanticindexing.RandomIndexingContext;
-import semanticindexing.RandomIndexingVector;
+import model.TermDictionary;
+import semanticindexing.IndexHash;
+import semanticindexing.RandomIndexingVectorArray;
 
 import java.io.*;
 import java.util.*;
@@ -25,11 +26,16 @@ public class AcronymRandomIndexingModelTrainer implements AcronymModelTrainer {
     private final static int DEFAULT_MAX_DIST = 9;
     private int maxDist;
 
-    private final int dimensionality = 1800;
+    private int dimensionality = 1800;
     private final int nonZeroValues = 4;
+    // Index vectors are derived from this; the same seed and data give the same model
+    private long seed = IndexHash.DEFAULT_SEED;
 
     private VectorSpaceDouble vectorSpace;
-    private Map<String,List<WordVectorDouble>> senseMap = new HashMap<>();
+    private final TermDictionary terms = new TermDictionary();
+    // Sum of the word vectors of each sense's training examples. Projection into RI space is linear, so each sense
+    // is projected once from its sum rather than example by example
+    private Map<String,SparseVectorDouble> senseMap = new HashMap<>();
 
     /**
      * Initializes the acronym trainer. Needs paths to two text files:
@@ -69,75 +75,81 @@ public class AcronymRandomIndexingModelTrainer implements AcronymModelTrainer {
 //        model = new AcronymRandomIndexingModel(expansionMapBuilder);
     }
 
+    /** @see #newShard() */
+    private AcronymRandomIndexingModelTrainer(AcronymRandomIndexingModelTrainer settings) {
+        expansionMap = settings.expansionMap;
+        uniqueIdMap = settings.uniqueIdMap;
+        maxDist = settings.maxDist;
+        seed = settings.seed;
+        dimensionality = settings.dimensionality;
+        vectorSpace = new VectorSpaceDouble(maxDist);
+    }
+
+    /**
+     * Set the seed from which the words' RI contexts are generated
+     * @param seed any value
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Set the number of dimensions of the RI vectors (default 1800)
+     * @param dimensionality more than twice the number of non-zero values in each word's context
+     */
+    public void setDimensionality(int dimensionality) {
+        if(dimensionality <= 2 * nonZeroValues) {
+            throw new IllegalArgumentException("RI dimensionality must be more than " + 2 * nonZeroValues);
+        }
+        this.dimensionality = dimensionality;
+    }
+
     /**
      * Adds a tokenized document to the model, which should have been initialized already
      * @param document
      */
     public void addDocumentToModel(Document document) {
+        addDocumentToModel(new CompactDocument(document, terms));
+    }
+
+    /**
+     * Adds a tokenized document to the model, which should have been initialized already
+     * @param document
+     */
+    public void addDocumentToModel(CompactDocument document) {
 
         // Maximum number of words to look at (needn't look much farther than maxDist)
         int maxSize = (int) (maxDist * 1.5);
 
-        // These lists will all be the same length
-        // Tokens that are unique IDs, which will be used for training
-        List<Token> tokensOfInterest = new ArrayList<>();
-        // Chunks where our tokens of interest will be
-        List<Integer> startPositions = new ArrayList<>();
-        List<Integer> endPositions = new ArrayList<>();
-
-        List<Token> allTokens = new ArrayList<>();
-
-        // Our position in the document, for building the lists
-        int i = 0;
-
-        // Find tokens of interest in the document and their context; populate the above lists
-        for(Token token : document.getTokens()) {
-            allTokens.add(token);
-            if(uniqueIdMap.containsKey(token.getText())) {
-                tokensOfInterest.add(token);
-                startPositions.add(i - maxSize);
-                endPositions.add(i + maxSize + 1);
-            }
-            i++;
-        }
+        // Go through every token of interest (a unique ID), calculate a vector for it from its context, and add it to
+        // what has been found for that sense
+        for(int i=0; i<document.size(); i++) {
+            String senseEnglish = uniqueIdMap.get(document.getTerm(i));
+            if(senseEnglish == null) continue;
 
-        i = 0;
-        for(Token tokenOfInterest : tokensOfInterest) {
-            String senseEnglish = uniqueIdMap.get(tokenOfInterest.getText());
-            int start = startPositions.get(i);
-            int end = endPositions.get(i);
+            int start = i - maxSize;
+            int end = i + maxSize + 1;
             if(start < 0) start = 0;
-            if(end > allTokens.size()) end = allTokens.size() - 1;
+            if(end > document.size()) end = document.size() - 1;
 
-            WordVectorDouble calculatedVector = vectorSpace.vectorize(allTokens.subList(start, end), tokenOfInterest);
+            SparseVectorDouble calculatedVector = vectorSpace.vectorize(document, start, end, i);
 
-            senseMap.putIfAbsent(senseEnglish, new ArrayList<>());
-            senseMap.get(senseEnglish).add(calculatedVector);
-
-            i++;
+            senseMap.computeIfAbsent(senseEnglish, x -> new SparseVectorDouble()).add(calculatedVector);
         }
     }
 
     public AcronymRandomIndexingModel getModel() {
         vectorSpace.finishTraining();
 
-        List<RandomIndexingContext> dictionary = new ArrayList<>();
-
-        for(int i=0; i<vectorSpace.numWords(); i++) {
-            dictionary.add(new RandomIndexingContext(dimensionality, nonZeroValues));
-        }
-
-        Map<String,RandomIndexingVector> senseVecs = new HashMap<>();
+        Map<String,RandomIndexingVectorArray> senseVecs = new HashMap<>();
 
         for (String acronym : expansionMap.keySet()) {
 
-            // determine which senses we actually saw, and count the total number of training examples
+            // determine which senses we actually saw
             List<String> presentSenses = new ArrayList<>();
-            int totalExamples = 0;
             for(String sense : expansionMap.get(acronym)) {
                 if(senseMap.containsKey(sense)) {
                     presentSenses.add(sense);
-                    totalExamples += senseMap.get(sense).size();
                 }
             }
             expansionMap.put(acronym, presentSenses);
@@ -146,16 +158,14 @@ public class AcronymRandomIndexingModelTrainer implements AcronymModelTrainer {
 
                 for(String sense : expansionMap.get(acronym)) {
 
-                    RandomIndexingVector riv = new RandomIndexingVector();
+                    RandomIndexingVectorArray riv = new RandomIndexingVectorArray(dimensionality);
+                    DoubleVector idf = vectorSpace.getIdf();
 
-                    for (DoubleVector wordVec : senseMap.get(sense)) {
-
-                        for (int key : wordVec.getKeySet()) {
-                            double weight = wordVec.get(key) * vectorSpace.getIdf().get(key);
-                            riv.addContext(dictionary.get(key), weight);
-                        }
-
-                    }
+                    // One context per distinct word of the sense, however many examples it appeared in
+                    senseMap.get(sense).forEachNonZero((key, value) -> {
+                        double weight = value * idf.get(key);
+                        riv.addContext(AcronymRandomIndexingModel.indexContext(seed, dimensionality, nonZeroValues, key), weight);
+                    });
 
                     senseVecs.put(sense, riv);
                 }
@@ -163,12 +173,29 @@ public class AcronymRandomIndexingModelTrainer implements AcronymModelTrainer {
         }
 
         // norm the summed vectors or heavy weight will be given to more common terms
-        for(RandomIndexingVector v : senseVecs.values()) {
+        for(RandomIndexingVectorArray v : senseVecs.values()) {
             v.normVector();
         }
 
-        return new AcronymRandomIndexingModel(vectorSpace, dictionary, senseVecs, expansionMap);
+        return new AcronymRandomIndexingModel(vectorSpace, seed, dimensionality, nonZeroValues, senseVecs, expansionMap);
+    }
+
+    @Override
+    public AcronymRandomIndexingModelTrainer newShard() {
+        return new AcronymRandomIndexingModelTrainer(this);
     }
 
+    @Override
+    public void merge(AcronymModelTrainer shard) {
+        if(!(shard instanceof AcronymRandomIndexingModelTrainer)) {
+            throw new IllegalArgumentException("Can only merge shards made by newShard");
+        }
+        AcronymRandomIndexingModelTrainer other = (AcronymRandomIndexingModelTrainer) shard;
+        // Renumber the shard's words into this trainer's vector space
+        int[] newIndex = vectorSpace.merge(other.vectorSpace);
+        for(Map.Entry<String,SparseVectorDouble> e : other.senseMap.entrySet()) {
+            senseMap.computeIfAbsent(e.getKey(), x -> new SparseVectorDouble()).add(new SparseVectorDouble(e.getValue(), newIndex));
+        }
+    }
 
 }
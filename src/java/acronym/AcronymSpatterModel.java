@@ -1,10 +1,13 @@
 package acronym;
 
 import model.Token;
+import semanticindexing.BinarySpatterBundler;
 import semanticindexing.BinarySpatterVectorBit;
+import semanticindexing.IndexHash;
 
 import java.io.*;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -20,29 +23,36 @@ public class AcronymSpatterModel implements Serializable, AcronymModel {
     private final Map<String,String> reverseExpansionMap;
 
     private final List<String> senses;
+    // Position of each sense in senses; rebuilt when the model is loaded
+    private transient Map<String,Integer> senseIndex;
 
-    private final Map<String,BinarySpatterVectorBit> acronymVectors;
-    private final List<BinarySpatterVectorBit> senseVectors;
-    private final List<BinarySpatterVectorBit> acrSenseVectors;
+    // Random vectors for acronyms and senses are generated from (seed, name), so they are rebuilt when the model is
+    // loaded rather than serialized
+    private final long seed;
+    private transient Map<String,BinarySpatterVectorBit> acronymVectors;
+    private transient List<BinarySpatterVectorBit> senseVectors;
+    private transient List<BinarySpatterVectorBit> acrSenseVectors;
 
-    private final List<int[]> acronymsWithTerm;
+    // For each word, its co-occurrence count with each sense (indexed as in senses)
+    private final List<CompressedVectorDouble> acronymsWithTerm;
 
     private final Map<String,Integer> dictionary;
 
     private final double[] weights;
 
-    private BinarySpatterVectorBit[] wordVectors = null;
+    // Word vectors are derived data: built on demand and kept in a bounded cache (or all at once, see
+    // precomputeWordVectors), and never serialized
+    private static final int WORD_VECTOR_CACHE_SIZE = 20000;
+    private transient BinarySpatterVectorBit[] wordVectors = null;
+    private transient Map<Integer,BinarySpatterVectorBit> wordVectorCache = null;
 
-    public AcronymSpatterModel(Map<String, List<String>> expansionMap, List<String> senses, List<int[]> acronymsWithTerm, Map<String,Integer> dictionary, double[] weights) {
+    public AcronymSpatterModel(Map<String, List<String>> expansionMap, List<String> senses, List<CompressedVectorDouble> acronymsWithTerm, Map<String,Integer> dictionary, double[] weights, long seed) {
         this.expansionMap = expansionMap;
         this.senses = senses;
         this.acronymsWithTerm = acronymsWithTerm;
         this.dictionary = dictionary;
         this.weights = weights;
-
-        acronymVectors = new HashMap<>();
-        senseVectors = new ArrayList<>();
-        acrSenseVectors = new ArrayList<>();
+        this.seed = seed;
 
         // Build a quick map to look up acronyms by sense, which we'll use a lot
         reverseExpansionMap = new HashMap<>();
@@ -52,34 +62,83 @@ public class AcronymSpatterModel implements Serializable, AcronymModel {
             }
         }
 
+        buildSenseIndex();
+        buildIndexVectors();
+    }
+
+    private void buildSenseIndex() {
+        senseIndex = new HashMap<>();
+        for(int i=0; i<senses.size(); i++) {
+            senseIndex.put(senses.get(i), i);
+        }
+    }
+
+    private void buildIndexVectors() {
+        acronymVectors = new HashMap<>();
+        senseVectors = new ArrayList<>();
+        acrSenseVectors = new ArrayList<>();
+
         // Create a binary spatter vector for each acronym and put them into a map
         for(String acronym : expansionMap.keySet()) {
-            acronymVectors.put(acronym, new BinarySpatterVectorBit(DIMENSIONALITY));
+            acronymVectors.put(acronym, new BinarySpatterVectorBit(DIMENSIONALITY, IndexHash.random(seed, "acronym:" + acronym)));
         }
         // Create binary spatter vectors for senses. These are in a list since senses have integer identifiers
         for(String sense : senses) {
-            BinarySpatterVectorBit senseBsv = new BinarySpatterVectorBit(DIMENSIONALITY);
+            BinarySpatterVectorBit senseBsv = new BinarySpatterVectorBit(DIMENSIONALITY, IndexHash.random(seed, "sense:" + sense));
             senseVectors.add(senseBsv);
             acrSenseVectors.add(senseBsv.xor(acronymVectors.get(reverseExpansionMap.get(sense))));
         }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildSenseIndex();
+        buildIndexVectors();
+    }
 
-        // Build BSVs for every word in the corpus
-        // If this code is removed, then redundant code will build these when attempting to classify acronyms
-        wordVectors = new BinarySpatterVectorBit[dictionary.size()];
-        for (String word : dictionary.keySet()) {
-            BinarySpatterVectorBit wordVector = new BinarySpatterVectorBit(DIMENSIONALITY);
+    /**
+     * Build the vectors for every word in the dictionary now (in parallel), rather than as they are first needed
+     * Uses about DIMENSIONALITY / 8 bytes per word
+     */
+    public void precomputeWordVectors() {
+        BinarySpatterVectorBit[] allVectors = new BinarySpatterVectorBit[dictionary.size()];
+        IntStream.range(0, allVectors.length).parallel().forEach(i -> allVectors[i] = buildWordVector(i));
+        wordVectors = allVectors;
+    }
 
-            int wordInt = dictionary.get(word);
+    // A word's vector is the bundle of the acronym-sense vectors it co-occurred with, weighted by count
+    private BinarySpatterVectorBit buildWordVector(int wordInt) {
+        BinarySpatterBundler bundle = new BinarySpatterBundler(DIMENSIONALITY);
+        // Only senses the word actually occurred with are stored (zero counts would contribute no votes anyway)
+        acronymsWithTerm.get(wordInt).forEachNonZero((sense, count) ->
+                bundle.add(acrSenseVectors.get(sense).getWords(), (long) count));
+        return new BinarySpatterVectorBit(bundle.threshold());
+    }
 
-            int[] cooccurringSenses = acronymsWithTerm.get(wordInt);
-            for (int i = 0; i < cooccurringSenses.length; i++) {
-                wordVector.add(acrSenseVectors.get(i), cooccurringSenses[i]);
+    private BinarySpatterVectorBit getWordVector(int wordInt) {
+        if (wordVectors != null) {
+            return wordVectors[wordInt];
+        }
+        synchronized (this) {
+            if (wordVectorCache == null) {
+                // Access-ordered, so the least recently used vector is evicted first
+                wordVectorCache = new LinkedHashMap<Integer,BinarySpatterVectorBit>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer,BinarySpatterVectorBit> eldest) {
+                        return size() > WORD_VECTOR_CACHE_SIZE;
+                    }
+                };
+            }
+            BinarySpatterVectorBit wordVector = wordVectorCache.get(wordInt);
+            if (wordVector != null) {
+                return wordVector;
             }
-            wordVector.updateToVotingRecord();
-            wordVector.forgetVotingRecord();
-            wordVectors[wordInt] = wordVector;
         }
-
+        BinarySpatterVectorBit wordVector = buildWordVector(wordInt);
+        synchronized (this) {
+            wordVectorCache.put(wordInt, wordVector);
+        }
+        return wordVector;
     }
 
     public List<String> getExpansions(Token token) {
@@ -103,23 +162,6 @@ public class AcronymSpatterModel implements Serializable, AcronymModel {
     @Override
     public String findBestSense(List<Token> context, Token token) {
 
-        if(wordVectors == null) {
-            wordVectors = new BinarySpatterVectorBit[dictionary.size()];
-            for (String word : dictionary.keySet()) {
-                BinarySpatterVectorBit wordVector = new BinarySpatterVectorBit(DIMENSIONALITY);
-
-                int wordInt = dictionary.get(word);
-
-                int[] cooccurringSenses = acronymsWithTerm.get(wordInt);
-                for (int i = 0; i < cooccurringSenses.length; i++) {
-                    wordVector.add(acrSenseVectors.get(i), cooccurringSenses[i]);
-                }
-                wordVector.updateToVotingRecord();
-                wordVector.forgetVotingRecord();
-                wordVectors[wordInt] = wordVector;
-            }
-        }
-
         // Return an empty string if we don't know this acronym
         String acronym = AcronymModel.standardForm(token);
         if(!expansionMap.containsKey(acronym)) return "";
@@ -129,7 +171,8 @@ public class AcronymSpatterModel implements Serializable, AcronymModel {
             return expansionMap.get(acronym).get(0);
         }
 
-        BinarySpatterVectorBit contextVector = new BinarySpatterVectorBit(DIMENSIONALITY);
+        // Bundle the context words straight into a voting record; no need for a (random) starting vector
+        BinarySpatterBundler contextBundle = new BinarySpatterBundler(DIMENSIONALITY);
 
         int best = DIMENSIONALITY;
         String winner = "acronym_expander_not_working";
@@ -161,16 +204,16 @@ public class AcronymSpatterModel implements Serializable, AcronymModel {
 
             if(dictionary.containsKey(word) && t != token) {
                 int wordInt = dictionary.get(word);
-                BinarySpatterVectorBit wordVector = wordVectors[wordInt];
+                BinarySpatterVectorBit wordVector = getWordVector(wordInt);
 
-                contextVector.add(wordVector, weights[wordInt]);
+                contextBundle.add(wordVector.getWords(), weights[wordInt]);
             }
         }
-        contextVector.updateToVotingRecord();
-        contextVector.forgetVotingRecord();
-        contextVector = contextVector.xor(acronymVectors.get(acronym));
+        BinarySpatterVectorBit contextVector = new BinarySpatterVectorBit(contextBundle.threshold());
+        BinarySpatterVectorBit acronymVector = acronymVectors.get(acronym);
         for(String sense : expansionMap.get(acronym)) {
-            int dist = contextVector.hamming(senseVectors.get(senses.indexOf(sense)));
+            // Distance from (context XOR acronym) to the sense; stops counting once it can't beat the best so far
+            int dist = contextVector.hamming(acronymVector, senseVectors.get(senseIndex.get(sense)), best - 1);
             if(dist < best) {
                 best = dist;
                 winner = sense;
@@ -1,7 +1,9 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Document;
-import model.Token;
+import model.TermDictionary;
+import semanticindexing.IndexHash;
 
 import java.io.*;
 import java.util.*;
@@ -22,15 +24,26 @@ public class AcronymSpatterModelTrainer implements AcronymModelTrainer {
     private final Map<String,String> reverseExpansionMap;
 
     private List<String> senses = new ArrayList<>();
+    // Position of each sense in senses
+    private Map<String,Integer> senseIndex = new HashMap<>();
 
     private int nDocs = 0;
 
-    private List<int[]> acronymsWithTerm = new ArrayList<>();
+    // The model's random vectors are derived from this; the same seed and data give the same model
+    private long seed = IndexHash.DEFAULT_SEED;
+
+    // For each word (by dictionary index), how many times it co-occurred with each sense (by index in senses)
+    // Sparse, since any one word is only seen near a handful of senses
+    private List<SparseVectorDouble> acronymsWithTerm = new ArrayList<>();
 
     private Map<String,Integer> dictionary = new HashMap<>();
+    private final TermDictionary terms = new TermDictionary();
 
-    // Will count up how many of each word occurs in each document so that doc freqs can be calculated
-    private List<Map<Integer,Integer>> wordsByDocument = new ArrayList<>();
+    // Log-entropy weighting needs sum over documents of p log p, where p = (count in document) / (total count).
+    // That sum equals (sum of c log c) / total - log(total), so only these two running totals per word are kept,
+    // and each document's counts can be dropped as soon as they are folded in
+    // Sum over documents of c log c for every word (only words seen more than once in a document have entries)
+    private SparseVectorDouble countLogCounts = new SparseVectorDouble();
     // Total counts of every word
     private List<Integer> globalFreqs = new ArrayList<>();
 
@@ -71,13 +84,34 @@ public class AcronymSpatterModelTrainer implements AcronymModelTrainer {
         // Build up the maps between acrs/senses and integer indices, and build up the spatter vectors for all acrs, senses, and combos
         for(String acronym : expansionMap.keySet()) {
             for(String sense : expansionMap.get(acronym)) {
-                if(!senses.contains(sense))
+                if(!senseIndex.containsKey(sense)) {
+                    senseIndex.put(sense, senses.size());
                     senses.add(sense);
+                }
                 reverseExpansionMap.put(sense,acronym);
             }
         }
     }
 
+    /** @see #newShard() */
+    private AcronymSpatterModelTrainer(AcronymSpatterModelTrainer settings) {
+        expansionMap = settings.expansionMap;
+        uniqueIdMap = settings.uniqueIdMap;
+        reverseExpansionMap = settings.reverseExpansionMap;
+        // Senses are numbered the same in every shard, so co-occurrence counts can be added directly
+        senses = settings.senses;
+        senseIndex = settings.senseIndex;
+        seed = settings.seed;
+    }
+
+    /**
+     * Set the seed from which the acronym and sense vectors are generated
+     * @param seed any value
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     /**
      * Call this after all documents have been added using addDocumentToModel(Document)
      * This will finalize the vectors and put them all into a knew AcronymVectorModel, which can be used or serialized
@@ -87,13 +121,9 @@ public class AcronymSpatterModelTrainer implements AcronymModelTrainer {
 
         double[] entropyWeight = new double[dictionary.size()];
 
-        for(Map<Integer,Integer> wordsThisDocument : wordsByDocument) {
-            for(Map.Entry<Integer,Integer> e : wordsThisDocument.entrySet()) {
-                double p = ((double)e.getValue()) / globalFreqs.get(e.getKey());
-                if(p != 0) {
-                    entropyWeight[e.getKey()] += p * Math.log(p);
-                }
-            }
+        for(int i=0; i<entropyWeight.length; i++) {
+            double total = globalFreqs.get(i);
+            entropyWeight[i] = countLogCounts.get(i) / total - Math.log(total);
         }
 
         for(int i=0; i<entropyWeight.length; i++) {
@@ -101,7 +131,13 @@ public class AcronymSpatterModelTrainer implements AcronymModelTrainer {
             entropyWeight[i] += 1.0;
         }
 
-        return new AcronymSpatterModel(expansionMap, senses, acronymsWithTerm, dictionary, entropyWeight);
+        // Counts are final now, so store them compactly
+        List<CompressedVectorDouble> compressedCounts = new ArrayList<>(acronymsWithTerm.size());
+        for(SparseVectorDouble counts : acronymsWithTerm) {
+            compressedCounts.add(new CompressedVectorDouble(counts));
+        }
+
+        return new AcronymSpatterModel(expansionMap, senses, compressedCounts, dictionary, entropyWeight, seed);
 
     }
 
@@ -110,63 +146,89 @@ public class AcronymSpatterModelTrainer implements AcronymModelTrainer {
      * @param document
      */
     public void addDocumentToModel(Document document) {
+        addDocumentToModel(new CompactDocument(document, terms));
+    }
 
-        // These lists will all be the same length
-        // Tokens that are unique IDs, which will be used for training
-        List<Token> tokensOfInterest = new ArrayList<>();
-        // Chunks where our tokens of interest will be
-        List<Integer> startPositions = new ArrayList<>();
-        List<Integer> endPositions = new ArrayList<>();
-
-        List<Token> allTokens = new ArrayList<>();
-
-        // Our position in the document, for building the lists
-        int i = 0;
-
-        // Find tokens of interest in the document and their context; populate the above lists
-        for(Token token : document.getTokens()) {
-            allTokens.add(token);
-            if(uniqueIdMap.containsKey(token.getText())) {
-                tokensOfInterest.add(token);
-                startPositions.add(i - MAX_DIST);
-                endPositions.add(i + MAX_DIST + 1);
-            }
-            i++;
-        }
+    /**
+     * Adds a tokenized document to the model, which should have been initialized already
+     * @param document
+     */
+    public void addDocumentToModel(CompactDocument document) {
+
+        for(int i=0; i<document.size(); i++) {
+            String senseEnglish = uniqueIdMap.get(document.getTerm(i));
+            if(senseEnglish == null) continue;
 
-        i = 0;
-        for(Token tokenOfInterest : tokensOfInterest) {
-            String senseEnglish = uniqueIdMap.get(tokenOfInterest.getText());
-            int start = startPositions.get(i);
-            int end = endPositions.get(i);
+            int start = i - MAX_DIST;
+            int end = i + MAX_DIST + 1;
             if(start < 0) start = 0;
-            if(end > allTokens.size()) end = allTokens.size() - 1;
+            if(end > document.size()) end = document.size() - 1;
 
-            wordsByDocument.add(new HashMap<>());
+            // Counts of each word in this document (window); folded into the running totals below
+            SparseVectorDouble wordsThisDocument = new SparseVectorDouble();
             nDocs++;
 
-            for(Token contextToken : allTokens.subList(start, end)) {
-                String word = AcronymModel.standardForm(contextToken);
+            Integer senseIndex = this.senseIndex.get(senseEnglish);
+
+            for(int k = start; k < end; k++) {
+                String word = AcronymModel.standardFormString(document.getTerm(k));
                 if (!dictionary.containsKey(word)) {
                     dictionary.put(word, dictionary.size());
                     globalFreqs.add(0);
-                    acronymsWithTerm.add(new int[senses.size()]);
+                    acronymsWithTerm.add(new SparseVectorDouble(1));
                 }
                 int wordInt = dictionary.get(word);
                 globalFreqs.set(wordInt, globalFreqs.get(wordInt)+1);
-                wordsByDocument.get(wordsByDocument.size() - 1).putIfAbsent(wordInt, 0);
-                wordsByDocument.get(wordsByDocument.size() - 1).compute(wordInt, (x,y) -> y+1);
+                wordsThisDocument.add(wordInt, 1);
 
                 // Increment the counter for this specific term appearing with this specific sense
-                // might be slow (use hashmap instead of ArrayList.indexOf?)
-                int senseIndex = senses.indexOf(senseEnglish);
-                if(senseIndex < senses.size() && senseIndex >= 0) {
-                    acronymsWithTerm.get(wordInt)[senseIndex]++;
+                if(senseIndex != null) {
+                    acronymsWithTerm.get(wordInt).add(senseIndex, 1);
                 }
 
             }
 
-            i++;
+            wordsThisDocument.forEachNonZero((wordInt, count) -> {
+                if(count > 1) {
+                    countLogCounts.add(wordInt, count * Math.log(count));
+                }
+            });
+        }
+    }
+
+    @Override
+    public AcronymSpatterModelTrainer newShard() {
+        return new AcronymSpatterModelTrainer(this);
+    }
+
+    @Override
+    public void merge(AcronymModelTrainer shard) {
+        if(!(shard instanceof AcronymSpatterModelTrainer)) {
+            throw new IllegalArgumentException("Can only merge shards made by newShard");
+        }
+        AcronymSpatterModelTrainer other = (AcronymSpatterModelTrainer) shard;
+
+        // Renumber the shard's words into this dictionary, adding the new ones in the order the shard saw them
+        String[] otherWords = new String[other.dictionary.size()];
+        for(Map.Entry<String,Integer> e : other.dictionary.entrySet()) {
+            otherWords[e.getValue()] = e.getKey();
+        }
+        int[] newIndex = new int[otherWords.length];
+        for(int i=0; i<otherWords.length; i++) {
+            Integer wordInt = dictionary.get(otherWords[i]);
+            if(wordInt == null) {
+                wordInt = dictionary.size();
+                dictionary.put(otherWords[i], wordInt);
+                globalFreqs.add(0);
+                acronymsWithTerm.add(new SparseVectorDouble(1));
+            }
+            newIndex[i] = wordInt;
+            globalFreqs.set(wordInt, globalFreqs.get(wordInt) + other.globalFreqs.get(i));
+            // Every shard numbers senses the same way, so a word's sense counts add without renumbering
+            acronymsWithTerm.get(wordInt).add(other.acronymsWithTerm.get(i));
         }
+
+        countLogCounts.add(new SparseVectorDouble(other.countLogCounts, newIndex));
+        nDocs += other.nDocs;
     }
 }
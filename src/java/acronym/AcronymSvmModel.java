@@ -1,10 +1,12 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Token;
 
 import java.io.*;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -46,20 +48,27 @@ public class AcronymSvmModel implements Serializable, AcronymModel {
 
     @Override
     public String findBestSense(List<Token> context, Token token) {
+        return findBestSense(AcronymModel.standardForm(token), token.getText(), () -> vectorSpaceDouble.vectorizeWeighted(context, token, true));
+    }
+
+    @Override
+    public String findBestSense(CompactDocument document, int index) {
+        return findBestSense(AcronymModel.standardFormString(document.getTerm(index)), document.getTerm(index),
+                () -> vectorSpaceDouble.vectorizeWeighted(document, 0, document.size(), index, true));
+    }
+
+    private String findBestSense(String acronym, String text, Supplier<SparseVectorDouble> contextVector) {
 
-        String acronym = AcronymModel.standardForm(token);
         if(!expansionMap.containsKey(acronym)) return "";
 
         if(expansionMap.get(acronym).size() == 1) {
             return (String) expansionMap.get(acronym).toArray()[0];
         }
         if(expansionMap.get(acronym).size() == 0) {
-            return token.getText();
+            return text;
         }
 
-        WordVectorDouble vector = vectorSpaceDouble.vectorize(context, token);
-        vector.multiply(vectorSpaceDouble.getIdf());
-        vector.normVector();
+        SparseVectorDouble vector = contextVector.get();
 
         int winnerInt = models.get(acronym).classify( vector );
         String winner = expansionMap.get(acronym).get(winnerInt);
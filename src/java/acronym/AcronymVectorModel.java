@@ -1,9 +1,11 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Token;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -19,8 +21,8 @@ public class AcronymVectorModel implements Serializable, AcronymModel {
     // A map between acronyms and all their possible long forms
     private final Map<String,List<String>> expansionMap;
 
-    // Maps long forms to their trained word vectors
-    private final Map<String,DoubleVector> senseMap;
+    // Maps long forms to their trained word vectors (CompressedVectorDouble once trained)
+    private final Map<String,ReadableDoubleVector> senseMap;
 
     /**
      * Constructor. Needs several things already made:
@@ -28,7 +30,7 @@ public class AcronymVectorModel implements Serializable, AcronymModel {
      * @param senseMap which maps between senses and their context vectors
      * @param expansionMap which maps between acronym Strings and Lists of their possible senses
      */
-    public AcronymVectorModel(VectorSpaceDouble vectorSpaceDouble, Map<String, DoubleVector> senseMap, Map<String, List<String>> expansionMap) {
+    public AcronymVectorModel(VectorSpaceDouble vectorSpaceDouble, Map<String, ReadableDoubleVector> senseMap, Map<String, List<String>> expansionMap) {
         this.expansionMap = expansionMap;
         this.senseMap = senseMap;
         this.vectorSpaceDouble = vectorSpaceDouble;
@@ -67,12 +69,20 @@ public class AcronymVectorModel implements Serializable, AcronymModel {
      */
     @Override
     public String findBestSense(List<Token> context, Token token) {
+        return findBestSense(AcronymModel.standardForm(token), () -> vectorSpaceDouble.vectorizeWeighted(context, token, false));
+    }
+
+    @Override
+    public String findBestSense(CompactDocument document, int index) {
+        return findBestSense(AcronymModel.standardFormString(document.getTerm(index)),
+                () -> vectorSpaceDouble.vectorizeWeighted(document, 0, document.size(), index, false));
+    }
+
+    private String findBestSense(String acronym, Supplier<SparseVectorDouble> contextVector) {
 
         // String to assign to unknown acronyms
         final String UNK = "(unknown)";
 
-        String acronym = AcronymModel.standardForm(token);
-
         // If the model doesn't contain this acronym, make sure it doesn't contain an upper-case version of it
         if(!expansionMap.containsKey(acronym))
             return UNK;
@@ -80,13 +90,13 @@ public class AcronymVectorModel implements Serializable, AcronymModel {
         double best = -Double.MAX_VALUE;
         String winner = UNK;
 
-        DoubleVector vector = vectorSpaceDouble.vectorize(context, token);
-        vector.multiply(vectorSpaceDouble.getIdf());
+        // Sort the context vector once so it can be merged against each (compressed) sense centroid
+        ReadableDoubleVector vector = new CompressedVectorDouble(contextVector.get());
 
         // Loop through all possible senses for this acronym
         for(String sense : expansionMap.get(acronym)) {
             if(senseMap.containsKey(sense)) {
-                DoubleVector compVec = senseMap.get(sense);
+                ReadableDoubleVector compVec = senseMap.get(sense);
                 double score = vector.dot(compVec);
                 if (score > best) {
                     best = score;
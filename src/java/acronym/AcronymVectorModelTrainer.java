@@ -1,7 +1,8 @@
 package acronym;
 
+import model.CompactDocument;
 import model.Document;
-import model.Token;
+import model.TermDictionary;
 
 import java.io.*;
 import java.util.*;
@@ -26,6 +27,7 @@ public class AcronymVectorModelTrainer implements AcronymModelTrainer {
     private double maxDist = DEFAULT_MAX_DIST;
 
     private VectorSpaceDouble vectorSpace = new VectorSpaceDouble(maxDist);
+    private final TermDictionary terms = new TermDictionary();
 
     // Will map senses to their centroid context vectors
     private Map<String,DoubleVector> senseMap = new HashMap<>();
@@ -66,6 +68,14 @@ public class AcronymVectorModelTrainer implements AcronymModelTrainer {
         uniqueIdMap = uniqueIdMapBuilder;
     }
 
+    /** @see #newShard() */
+    private AcronymVectorModelTrainer(AcronymVectorModelTrainer settings) {
+        expansionMap = settings.expansionMap;
+        uniqueIdMap = settings.uniqueIdMap;
+        maxDist = settings.maxDist;
+        vectorSpace = new VectorSpaceDouble(maxDist);
+    }
+
     /**
      * Call this after all documents have been added using addDocumentToModel(Document)
      * This will finalize the vectors and put them all into a knew AcronymVectorModel, which can be used or serialized
@@ -75,15 +85,19 @@ public class AcronymVectorModelTrainer implements AcronymModelTrainer {
         vectorSpace.finishTraining();
 
         // Apply some final operations to the model--most critically, normalization
-        for(DoubleVector vector : senseMap.values()) {
+        Map<String,ReadableDoubleVector> centroids = new HashMap<>();
+        for(Map.Entry<String,DoubleVector> e : senseMap.entrySet()) {
+            DoubleVector vector = e.getValue();
             vector.applyOperation(transformCounts);
             vector.multiply(vectorSpace.getIdf());
             vector.normVector();
             // Multiply the idf post-normalization: this is equivalent to applying the idf to test vectors
             vector.multiply(vectorSpace.getIdf());
+            // Centroids won't change again, so freeze them into sorted arrays for faster dot products
+            centroids.put(e.getKey(), new CompressedVectorDouble(vector));
         }
 
-        return new AcronymVectorModel(vectorSpace, senseMap, expansionMap);
+        return new AcronymVectorModel(vectorSpace, centroids, expansionMap);
     }
 
     /**
@@ -91,50 +105,34 @@ public class AcronymVectorModelTrainer implements AcronymModelTrainer {
      * @param document a tokenized document
      */
     public void addDocumentToModel(Document document) {
+        addDocumentToModel(new CompactDocument(document, terms));
+    }
+
+    /**
+     * Adds a document to the model, which should have been initialized already
+     * @param document a tokenized document
+     */
+    public void addDocumentToModel(CompactDocument document) {
 
         // Maximum number of words to look at (needn't look much farther than maxDist)
         int maxSize = (int) (maxDist * 1.5);
 
-        // These lists will all be the same length
-        // Tokens that are unique IDs, which will be used for training
-        List<Token> tokensOfInterest = new ArrayList<>();
-        // Chunks where our tokens of interest will be
-        List<Integer> startPositions = new ArrayList<>();
-        List<Integer> endPositions = new ArrayList<>();
-
-        List<Token> allTokens = new ArrayList<>();
-
-        // Our position in the document, for building the lists
-        int i = 0;
-
-        // Find tokens of interest in the document and their context; populate the above lists
-        for(Token token : document.getTokens()) {
-            allTokens.add(token);
-            if(uniqueIdMap.containsKey(token.getText())) {
-                tokensOfInterest.add(token);
-                startPositions.add(i - maxSize);
-                endPositions.add(i + maxSize + 1);
-            }
-            i++;
-        }
+        // Go through every token of interest (a unique ID), calculate a vector for it from its context, and add it to
+        // what has been found for that sense
+        for(int i=0; i<document.size(); i++) {
+            String senseEnglish = uniqueIdMap.get(document.getTerm(i));
+            if(senseEnglish == null) continue;
 
-        // Now go through to every token of interest, calculate a vector for it, and add it to the vectors already
-        // found for that sense.
-        i = 0;
-        for(Token tokenOfInterest : tokensOfInterest) {
-            String senseEnglish = uniqueIdMap.get(tokenOfInterest.getText());
-            int start = startPositions.get(i);
-            int end = endPositions.get(i);
+            int start = i - maxSize;
+            int end = i + maxSize + 1;
             if(start < 0) start = 0;
-            if(end > allTokens.size()) end = allTokens.size() - 1;
+            if(end > document.size()) end = document.size() - 1;
 
-            DoubleVector calculatedVector = vectorSpace.vectorize(allTokens.subList(start, end), tokenOfInterest);
+            DoubleVector calculatedVector = vectorSpace.vectorize(document, start, end, i);
 
             if( senseMap.putIfAbsent(senseEnglish, calculatedVector) != null ) {
                 senseMap.get(senseEnglish).add(calculatedVector);
             }
-
-            i++;
         }
     }
 
@@ -146,4 +144,25 @@ public class AcronymVectorModelTrainer implements AcronymModelTrainer {
         transformCounts = function;
     }
 
+    @Override
+    public AcronymVectorModelTrainer newShard() {
+        return new AcronymVectorModelTrainer(this);
+    }
+
+    @Override
+    public void merge(AcronymModelTrainer shard) {
+        if(!(shard instanceof AcronymVectorModelTrainer)) {
+            throw new IllegalArgumentException("Can only merge shards made by newShard");
+        }
+        AcronymVectorModelTrainer other = (AcronymVectorModelTrainer) shard;
+        // Renumber the shard's words into this trainer's vector space
+        int[] newIndex = vectorSpace.merge(other.vectorSpace);
+        for(Map.Entry<String,DoubleVector> e : other.senseMap.entrySet()) {
+            DoubleVector vector = new SparseVectorDouble(e.getValue(), newIndex);
+            if( senseMap.putIfAbsent(e.getKey(), vector) != null ) {
+                senseMap.get(e.getKey()).add(vector);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,140 @@
+package acronym;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable sparse vector stored as sorted parallel arrays of indices and values
+ * Meant for vectors that are finished changing (trained sense centroids, e.g.), where it takes about half the memory
+ * of a hashed vector, and dot products between two of them are a merge of the sorted indices
+ * Only the read-only half of DoubleVector is implemented; copy into a SparseVectorDouble to change one
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public class CompressedVectorDouble implements Serializable, ReadableDoubleVector {
+
+    // Sorted ascending, no duplicates
+    private final int[] indices;
+    private final double[] values;
+
+    /**
+     * Freeze another vector into compressed form
+     * @param v the vector to copy (will not be changed)
+     */
+    public CompressedVectorDouble(ReadableDoubleVector v) {
+        int[] count = {0};
+        v.forEachNonZero((index, value) -> count[0]++);
+
+        // Pack index and original position into one long so a single primitive sort orders both arrays
+        long[] packed = new long[count[0]];
+        double[] unsorted = new double[count[0]];
+        int[] position = {0};
+        v.forEachNonZero((index, value) -> {
+            packed[position[0]] = ((long) index << 32) | position[0];
+            unsorted[position[0]] = value;
+            position[0]++;
+        });
+        Arrays.sort(packed);
+
+        indices = new int[packed.length];
+        values = new double[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            indices[i] = (int) (packed[i] >> 32);
+            values[i] = unsorted[(int) packed[i]];
+        }
+    }
+
+    /**
+     * Number of stored (non-zero) elements
+     * @return size
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    public double get(int index) {
+        int i = Arrays.binarySearch(indices, index);
+        return i >= 0 ? values[i] : 0;
+    }
+
+    public double magnitude() {
+        double sqsum = 0;
+        for (double x : values) {
+            sqsum += x * x;
+        }
+        return Math.sqrt(sqsum);
+    }
+
+    /**
+     * Return the dot product of this vector with another
+     * Two compressed vectors are joined on their sorted indices; anything else is probed once per element of this one
+     * @param v another vector
+     * @return their dot product
+     */
+    public double dot(ReadableDoubleVector v) {
+        if (v instanceof CompressedVectorDouble) {
+            CompressedVectorDouble c = (CompressedVectorDouble) v;
+            // Walk the shorter vector and gallop through the longer one
+            return indices.length <= c.indices.length ? join(this, c) : join(c, this);
+        }
+        double sum = 0;
+        for (int i = 0; i < indices.length; i++) {
+            sum += values[i] * v.get(indices[i]);
+        }
+        return sum;
+    }
+
+    public double dot(double[] dense) {
+        double sum = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int k = indices[i];
+            if (k >= 0 && k < dense.length) {
+                sum += values[i] * dense[k];
+            }
+        }
+        return sum;
+    }
+
+    // Sorted-index join; short should be the vector with fewer elements
+    private static double join(CompressedVectorDouble shortVec, CompressedVectorDouble longVec) {
+        int[] b = longVec.indices;
+        double sum = 0;
+        int lo = 0;
+        for (int i = 0; i < shortVec.indices.length && lo < b.length; i++) {
+            int target = shortVec.indices[i];
+            // Gallop: double the step until we pass the target, then binary search the last step
+            int step = 1;
+            int hi = lo;
+            while (hi < b.length && b[hi] < target) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(b, lo, Math.min(hi + 1, b.length), target);
+            if (found >= 0) {
+                sum += shortVec.values[i] * longVec.values[found];
+                lo = found + 1;
+            } else {
+                lo = -found - 1;
+            }
+        }
+        return sum;
+    }
+
+    public void forEachNonZero(ElementConsumer consumer) {
+        for (int i = 0; i < indices.length; i++) {
+            consumer.accept(indices[i], values[i]);
+        }
+    }
+
+    public Set<Integer> getKeySet() {
+        Set<Integer> keySet = new HashSet<>();
+        for (int k : indices) {
+            keySet.add(k);
+        }
+        return keySet;
+    }
+
+}
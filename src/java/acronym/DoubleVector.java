@@ -1,6 +1,5 @@
 package acronym;
 
-import java.util.Set;
 import java.util.function.Function;
 
 /**
@@ -8,20 +7,7 @@ import java.util.function.Function;
  *
  * Created by ANONYMOUS on 11/10/15.
  */
-public interface DoubleVector {
-
-    /**
-     * Get an element from this vector
-     * @param index the index of the returned element
-     * @return the value at that element (zero if absent)
-     */
-    double get(int index);
-
-    /**
-     * The magnitude/length of this vector
-     * @return magnitude
-     */
-    double magnitude();
+public interface DoubleVector extends ReadableDoubleVector {
 
     /**
      * Normalize this vector to unit length
@@ -32,13 +18,13 @@ public interface DoubleVector {
      * adds another vector to this one
      * @param v the vector to add (argument vector should not be changed)
      */
-    void add(DoubleVector v);
+    void add(ReadableDoubleVector v);
 
     /**
      * sets this vector to the Hadamard/elementwise product with another vector
      * @param v the vector to multiply against this one (argument vector should not be changed)
      */
-    void multiply(DoubleVector v);
+    void multiply(ReadableDoubleVector v);
 
     /**
      * Applies an operation to every element of this vector
@@ -46,17 +32,4 @@ public interface DoubleVector {
      */
     void applyOperation(Function<Double,Double> operation);
 
-    /**
-     * Calculates this vector's dot product with another vector
-     * @param v the other vector
-     * @return the dot product
-     */
-    double dot(DoubleVector v);
-
-    /**
-     * Get all non-zero keys of this vector
-     * @return a set of integer keys
-     */
-    Set<Integer> getKeySet();
-
 }
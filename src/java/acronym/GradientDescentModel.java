@@ -1,8 +1,14 @@
 package acronym;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 /**
  * Simple class for performing gradient descent on a matrix of weights for logistic regression/maxent, svms, etc.
@@ -20,6 +26,10 @@ public class GradientDescentModel implements Serializable {
     // Total number of features (will add one for the intercept)
     private final int numFeatures;
 
+    // If not null, the model is compact: weight column j belongs to global feature localFeatures[j] (sorted)
+    // and features absent from this array have no weights at all
+    private final int[] localFeatures;
+
     // Number of class categories
     private final int numClasses;
 
@@ -38,14 +48,52 @@ public class GradientDescentModel implements Serializable {
     // The learning rate. Set rather high here, assuming the use of this Class with word vectors or similar data
     private double alpha = 100;
 
+    // Number of threads trainAll uses; above one, updates are applied Hogwild-style (lock-free, racing on theta)
+    private int numThreads = 1;
+
+    // Whether trainAll should compute the loss function (costs a log per class per example for logistic regression)
+    private boolean trackLoss = false;
+
+    // trainAll stops early once the loss (or training accuracy, if loss isn't tracked) changes by no more than this
+    // (relative to the loss, if the loss is above one) for 'patience' epochs in a row. Zero always runs every epoch
+    private double tolerance = 0;
+    private int patience = DEFAULT_PATIENCE;
+
+    /**
+     * Default number of plateaued epochs before stopping. Examples are visited in the same class-by-class order every
+     * epoch, so training accuracy (measured as each example is trained on) favours whichever class was just seen and
+     * can stand still for several epochs while the weights are still improving
+     */
+    public static final int DEFAULT_PATIENCE = 10;
+
     public GradientDescentModel(int numFeatures, int numClasses, String modelType) {
         this(numFeatures, numClasses, modelType, false);
     }
 
     public GradientDescentModel(int numFeatures, int numClasses, String modelType, boolean usingIntercept) {
+        this(numFeatures, numClasses, modelType, usingIntercept, null);
+    }
+
+    /**
+     * Compact constructor: only allocates weights for the features that occur in the training data
+     * A feature never seen in training would keep a weight of zero anyway, so classification is unaffected
+     * @param allData the training data that will be passed to trainAll (see trainAll for its layout)
+     */
+    public GradientDescentModel(List<List<DoubleVector>> allData, String modelType, boolean usingIntercept) {
+        this(0, allData.size(), modelType, usingIntercept, featuresIn(allData));
+    }
+    public GradientDescentModel(List<List<DoubleVector>> allData, String modelType) {
+        this(allData, modelType, false);
+    }
+
+    private GradientDescentModel(int numFeatures, int numClasses, String modelType, boolean usingIntercept, int[] localFeatures) {
         if(numClasses < 2) {
             System.out.println("Trying to train classifier with fewer than two classes!");
         }
+        if(localFeatures != null) {
+            numFeatures = localFeatures.length;
+        }
+        this.localFeatures = localFeatures;
         this.numClasses = numClasses;
         this.numFeatures = numFeatures + 1;
         this.usingIntercept = usingIntercept;
@@ -69,7 +117,90 @@ public class GradientDescentModel implements Serializable {
         return lambda;
     }
 
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setTrackLoss(boolean trackLoss) {
+        this.trackLoss = trackLoss;
+    }
+
+    /**
+     * Turn on early stopping in trainAll (numIterations then becomes an upper bound)
+     * @param tolerance largest change in the loss or training accuracy between epochs that counts as a plateau
+     * @param patience number of consecutive plateaued epochs after which training stops
+     */
+    public void setConvergence(double tolerance, int patience) {
+        this.tolerance = tolerance;
+        this.patience = patience;
+    }
+
+    // Sorted array of every distinct feature index that appears in the data
+    private static int[] featuresIn(List<List<DoubleVector>> allData) {
+        SparseVectorDouble seen = new SparseVectorDouble();
+        for(List<DoubleVector> l : allData) {
+            for(DoubleVector example : l) {
+                example.forEachNonZero((index, value) -> seen.set(index, 1));
+            }
+        }
+        int[] features = new int[seen.size()];
+        int[] i = {0};
+        seen.forEachNonZero((index, value) -> features[i[0]++] = index);
+        Arrays.sort(features);
+        return features;
+    }
+
+    // Re-index a vector of global features onto this model's weight columns (a no-op unless the model is compact)
+    private DoubleVector toLocal(DoubleVector vector) {
+        if(localFeatures == null) {
+            return vector;
+        }
+        SparseVectorDouble local = new SparseVectorDouble();
+        vector.forEachNonZero((index, value) -> {
+            int j = Arrays.binarySearch(localFeatures, index);
+            if(j >= 0) {
+                local.set(j, value);
+            }
+        });
+        return local;
+    }
+
     public int classify(DoubleVector vector) {
+        if(localFeatures == null) {
+            return classifyLocal(vector);
+        }
+
+        // Score a compact model straight from the global features: each one's weight column is looked up once and
+        // added into every class's score, without building a re-indexed copy of the vector
+        double[] scores = new double[numClasses];
+        for(int c=0; c<numClasses; c++) {
+            scores[c] = theta[c][numFeatures-1];
+        }
+        vector.forEachNonZero((index, value) -> {
+            int j = Arrays.binarySearch(localFeatures, index);
+            if(j >= 0) {
+                for(int c=0; c<numClasses; c++) {
+                    scores[c] += theta[c][j] * value;
+                }
+            }
+        });
+
+        double maxScore = -Double.MAX_VALUE;
+        int winningClass = -1;
+        for(int c=0; c<numClasses; c++) {
+            if(scores[c] > maxScore) {
+                maxScore = scores[c];
+                winningClass = c;
+            }
+        }
+        return winningClass;
+    }
+
+    private int classifyLocal(DoubleVector vector) {
 
         double maxScore = -Double.MAX_VALUE;
         int winningClass = -1;
@@ -89,9 +220,11 @@ public class GradientDescentModel implements Serializable {
      *      numClasses<numExamplesOfThisClass<example>>
      *
      * This has the advantage over using trainOne that loss function statistics can be more easily reported
+     * (see setTrackLoss), and that it can stop early once training has converged (see setConvergence)
      *
      * @param allData see above
-     * @param numIterations number of iterations of gradient descent to perform
+     * @param numIterations maximum number of iterations of gradient descent to perform
+     * @return the mean loss for each class for every iteration that was run (all zero unless tracking loss)
      */
     public double[][] trainAll(List<List<DoubleVector>> allData, int numIterations) {
 
@@ -100,50 +233,142 @@ public class GradientDescentModel implements Serializable {
             numExamples += l.size();
         }
 
-        // Keep track of the loss function for all one-v-all models for all iterations
+        // Re-index everything once up front rather than on every pass
+        if(localFeatures != null) {
+            List<List<DoubleVector>> localData = new ArrayList<>();
+            for(List<DoubleVector> l : allData) {
+                List<DoubleVector> localClass = new ArrayList<>();
+                for(DoubleVector example : l) {
+                    localClass.add(toLocal(example));
+                }
+                localData.add(localClass);
+            }
+            allData = localData;
+        }
+
+        // Flatten the data (in the same class-by-class order) so it can be split between threads
+        List<DoubleVector> examples = new ArrayList<>(numExamples);
+        int[] labels = new int[numExamples];
+        for(int c=0; c<numClasses; c++) {
+            for(DoubleVector example : allData.get(c)) {
+                labels[examples.size()] = c;
+                examples.add(example);
+            }
+        }
+
+        // Keep track of the loss function for all one-v-all models for all iterations (only filled in if trackLoss)
         double[][] loss = new double[numIterations][numClasses];
         int[] trainingCorrect = new int[numIterations];
-        for(int r=0; r<numIterations; r++) {
 
-            // Calculate the loss function over all examples BEFORE training the model
-            for(int c=0; c<numClasses; c++) {
-                for(DoubleVector example : allData.get(c)) {
-                    double[] lossesThisExample = lossForExample(example, c);
-                    for(int c2=0; c2<numClasses; c2++) {
-                        loss[r][c2] += lossesThisExample[c2];
+        // Consecutive epochs in which the convergence measure has moved by less than the tolerance
+        int epochsWithinTolerance = 0;
+        double lastMeasure = Double.NaN;
+
+        int threads = Math.max(1, Math.min(numThreads, numExamples));
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        int r = 0;
+        try {
+            while (r < numIterations) {
+
+                // The loss and training accuracy are measured from the hypotheses the update already computes (i.e.,
+                // for each example just before it's trained on), so they don't cost a separate pass over the data.
+                // Each thread sums into its own row, so nothing is shared here
+                double[][] threadLoss = trackLoss ? new double[threads][numClasses] : null;
+                int[] threadCorrect = new int[threads];
+
+                // Same order every epoch (all of each class together), so runs are reproducible. With several threads this is Hogwild: every thread updates theta at once, without locking.
+                // Examples are dealt out round-robin so each thread still sees a mix of classes
+                runOnAllThreads(pool, threads, t -> {
+                    double[] lossThisThread = threadLoss == null ? null : threadLoss[t];
+                    for (int e = t; e < examples.size(); e += threads) {
+                        if (trainOneLocal(examples.get(e), labels[e], lossThisThread) == labels[e]) {
+                            threadCorrect[t]++;
+                        }
                     }
-                    if(classify(example) == c) {
-                        trainingCorrect[r]++;
+                });
+                for (int t = 0; t < threads; t++) {
+                    if (trackLoss) {
+                        for (int c = 0; c < numClasses; c++) {
+                            loss[r][c] += threadLoss[t][c] / numExamples;
+                        }
+                    }
+                    trainingCorrect[r] += threadCorrect[t];
+                }
+                r++;
+
+                // Stop once the total loss (or training accuracy, if loss isn't tracked) has plateaued
+                if (tolerance > 0) {
+                    double measure = (double) trainingCorrect[r - 1] / numExamples;
+                    if (trackLoss) {
+                        measure = 0;
+                        for (int c = 0; c < numClasses; c++) {
+                            measure += loss[r - 1][c];
+                        }
+                    }
+                    if (Math.abs(measure - lastMeasure) <= tolerance * Math.max(1, Math.abs(lastMeasure))) {
+                        epochsWithinTolerance++;
+                    } else {
+                        epochsWithinTolerance = 0;
+                    }
+                    lastMeasure = measure;
+                    if (epochsWithinTolerance >= patience) {
+                        break;
                     }
                 }
             }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return Arrays.copyOf(loss, r);
+    }
 
-            // should this be randomized (don't do all of each class in a chunk), or is it pretty much equivalent?
-            for(int c=0; c<numClasses; c++) {
-                // Go ahead and divide the loss functions here (can't do it in the other loop, where they're being added)
-                loss[r][c] /= numExamples;
-                for(DoubleVector example : allData.get(c)) {
-                    trainOne(example, c);
-                }
+    // Run task(t) for every thread number t and wait for all to finish; runs inline if there is no pool
+    private static void runOnAllThreads(ExecutorService pool, int threads, IntConsumer task) {
+        if (pool == null) {
+            task.accept(0);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> task.accept(thread)));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
             }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Gradient descent worker failed", e);
         }
-        return loss;
     }
 
     public void trainOne(DoubleVector example, int classLabel) {
+        trainOneLocal(toLocal(example), classLabel, null);
+    }
+
+    // Trains on one example; adds its loss for each class to lossSum if not null
+    // Returns the class the model predicted for the example before this update
+    private int trainOneLocal(DoubleVector example, int classLabel, double[] lossSum) {
         if(modelType.equals(LOGISTIC)) {
-            trainLogistic(example, classLabel);
+            return trainLogistic(example, classLabel, lossSum);
         }
         else if(modelType.equals(SVM)) {
-            trainSvm(example, classLabel);
+            return trainSvm(example, classLabel, lossSum);
         }
         else {
             System.out.println("Unsupported model type! Not training.");
+            return -1;
         }
     }
 
     // Returns the loss for all classes for this example
     public double[] lossForExample(DoubleVector example, int classLabel) {
+        return lossForExampleLocal(toLocal(example), classLabel);
+    }
+
+    private double[] lossForExampleLocal(DoubleVector example, int classLabel) {
 
         double[] loss = new double[numClasses];
         // log-odds loss
@@ -175,48 +400,72 @@ public class GradientDescentModel implements Serializable {
     }
 
     // Perform one round of gradient descent for all classes for a single example
-    private void trainLogistic(DoubleVector example, int classLabel) {
+    private int trainLogistic(DoubleVector example, int classLabel, double[] lossSum) {
         int[] y = new int[numClasses];
         y[classLabel] = 1;
+        double maxScore = -Double.MAX_VALUE;
+        int predicted = -1;
         for(int setClass = 0; setClass < numClasses; setClass++) {
-            double hyp = logisticHypothesis(setClass, example);
+            double score = linearHypothesis(setClass, example);
+            if(score > maxScore) {
+                maxScore = score;
+                predicted = setClass;
+            }
+            double hyp = logistic(score);
+            if(lossSum != null) {
+                lossSum[setClass] -= Math.log(y[setClass] == 1 ? hyp : 1.0 - hyp);
+            }
             // Not quite the partial derivative--this ignores which feature we're on, but it's quicker to not recalculate for every feature
             double partialDeriv = ((double)y[setClass] - hyp);
-            for(int j : example.getKeySet()) {
-                // NOW multiply in the value of the example
-                theta[setClass][j] += example.get(j) * alpha * partialDeriv + lambda * theta[setClass][j];
-            }
+            double[] weights = theta[setClass];
+            // NOW multiply in the value of the example
+            example.forEachNonZero((j, x) -> weights[j] += x * alpha * partialDeriv + lambda * weights[j]);
             if(usingIntercept) {
                 theta[setClass][numFeatures - 1] += alpha * partialDeriv;
             }
         }
+        return predicted;
     }
 
     // Perform one round of gradient descent for all classes for a single example
-    private void trainSvm(DoubleVector example, int classLabel) {
+    private int trainSvm(DoubleVector example, int classLabel, double[] lossSum) {
         int[] y = new int[numClasses];
         Arrays.fill(y, -1);
         y[classLabel] = 1;
 
+        double maxScore = -Double.MAX_VALUE;
+        int predicted = -1;
         for(int setClass = 0; setClass < numClasses; setClass++) {
             double hyp = linearHypothesis(setClass, example);
+            if(hyp > maxScore) {
+                maxScore = hyp;
+                predicted = setClass;
+            }
             // hingeLoss might be less than zero, but we won't continue if it is
             double hingeLoss = 1 - (y[setClass] * hyp);
             if(hingeLoss > 0) {
-                for(int j : example.getKeySet()) {
-                    // This is the update rule used for logistic regression; does it apply the same way here?
-                    // It seems the derivative is MUCH greater
-                    theta[setClass][j] += alpha * example.get(j) * y[setClass] + lambda * theta[setClass][j];
+                if(lossSum != null) {
+                    lossSum[setClass] += hingeLoss;
                 }
+                double[] weights = theta[setClass];
+                int label = y[setClass];
+                // This is the update rule used for logistic regression; does it apply the same way here?
+                // It seems the derivative is MUCH greater
+                example.forEachNonZero((j, x) -> weights[j] += alpha * x * label + lambda * weights[j]);
                 if(usingIntercept) {
                 }
             }
         }
+        return predicted;
     }
 
     // hypothesis for logistic regression
     private double logisticHypothesis(int whichClass, DoubleVector example) {
-        double x = 1.0 / (1.0 + Math.exp(-linearHypothesis(whichClass, example)));
+        return logistic(linearHypothesis(whichClass, example));
+    }
+
+    private static double logistic(double linear) {
+        double x = 1.0 / (1.0 + Math.exp(-linear));
         if(x < 0 || x > 1)
             System.out.println("PROBLEM WITH LOGISTIC HYPOTHESIS FUNCTION");
         return x;
@@ -225,11 +474,7 @@ public class GradientDescentModel implements Serializable {
     // Take the dot product of theta and a vector for a given hypothesized class
     private double linearHypothesis(int whichClass, DoubleVector v2) {
         // initialize sum to just be the intercept term
-        double sum = theta[whichClass][numFeatures-1];
-        for(int key : v2.getKeySet()) {
-            sum += v2.get(key) * theta[whichClass][key];
-        }
-        return sum;
+        return theta[whichClass][numFeatures-1] + v2.dot(theta[whichClass]);
     }
 
 }
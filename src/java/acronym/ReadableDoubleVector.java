@@ -0,0 +1,70 @@
+package acronym;
+
+import java.util.Set;
+
+/**
+ * The read-only half of DoubleVector, for vectors that can be looked at but not changed (CompressedVectorDouble, e.g.)
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public interface ReadableDoubleVector {
+
+    /**
+     * Get an element from this vector
+     * @param index the index of the returned element
+     * @return the value at that element (zero if absent)
+     */
+    double get(int index);
+
+    /**
+     * The magnitude/length of this vector
+     * @return magnitude
+     */
+    double magnitude();
+
+    /**
+     * Calculates this vector's dot product with another vector
+     * @param v the other vector
+     * @return the dot product
+     */
+    double dot(ReadableDoubleVector v);
+
+    /**
+     * Get all non-zero keys of this vector
+     * Builds a new set on every call, so prefer forEachNonZero inside loops
+     * @return a set of integer keys
+     */
+    Set<Integer> getKeySet();
+
+    /**
+     * Visits every stored element of this vector without allocating or boxing
+     * The consumer should not add new keys to this vector while it is being iterated
+     * @param consumer called once with each (index, value) pair
+     */
+    void forEachNonZero(ElementConsumer consumer);
+
+    /**
+     * Calculates the dot product of this vector with a dense array of weights
+     * Indices that fall outside the array contribute nothing
+     * @param dense an array indexed the same way as this vector
+     * @return the dot product
+     */
+    default double dot(double[] dense) {
+        double[] sum = {0};
+        forEachNonZero((index, value) -> {
+            if (index >= 0 && index < dense.length) {
+                sum[0] += value * dense[index];
+            }
+        });
+        return sum[0];
+    }
+
+    /**
+     * Primitive callback for forEachNonZero
+     */
+    @FunctionalInterface
+    interface ElementConsumer {
+        void accept(int index, double value);
+    }
+
+}
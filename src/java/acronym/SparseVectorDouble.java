@@ -0,0 +1,283 @@
+package acronym;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A sparse vector of floating-point values backed by parallel primitive arrays (open addressing, linear probing)
+ * Does the same job as WordVectorDouble without boxing a key and a value for every non-zero element
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public class SparseVectorDouble implements Serializable, DoubleVector {
+
+    // Marks an unused slot in the key array. Negative keys are legal (unknown words vectorize to -1), so use MIN_VALUE
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    // Table will be grown when it becomes fuller than this
+    private static final double MAX_LOAD = 0.6;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Parallel arrays of keys and values; length is always a power of two
+    private int[] keys;
+    private double[] values;
+
+    // Number of occupied slots
+    private int size = 0;
+
+    public SparseVectorDouble() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of non-zero elements this vector is expected to hold
+     */
+    public SparseVectorDouble(int expectedSize) {
+        int capacity = 2;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Copy constructor; works from any other DoubleVector
+     * @param v the vector to copy (will not be changed)
+     */
+    public SparseVectorDouble(ReadableDoubleVector v) {
+        this();
+        add(v);
+    }
+
+    /**
+     * Copy with every index i moved to newIndex[i] (when merging vectors built with different dictionaries, e.g.)
+     * @param v the vector to copy (will not be changed)
+     * @param newIndex new index of each of v's indices
+     */
+    public SparseVectorDouble(ReadableDoubleVector v, int[] newIndex) {
+        this();
+        v.forEachNonZero((index, value) -> add(newIndex[index], value));
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new double[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Spread the bits of the key so that runs of consecutive word indices don't cluster
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    // Index of the slot holding this key, or of the empty slot where it would go
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(keys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Set an element of this vector, adding the key if absent
+     * @param index the index of the element
+     * @param value its new value
+     */
+    public void set(int index, double value) {
+        int i = find(index);
+        if (keys[i] == EMPTY) {
+            keys[i] = index;
+            size++;
+            values[i] = value;
+            if (size > keys.length * MAX_LOAD) grow();
+        } else {
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Add a value onto a single element of this vector, adding the key if absent
+     * @param index the index of the element
+     * @param value the amount to add
+     */
+    public void add(int index, double value) {
+        int i = find(index);
+        if (keys[i] == EMPTY) {
+            keys[i] = index;
+            size++;
+            values[i] = value;
+            if (size > keys.length * MAX_LOAD) grow();
+        } else {
+            values[i] += value;
+        }
+    }
+
+    /**
+     * Remove an element, shifting back any later entries of its probe run so that lookups still find them
+     * @param index the index of the element to remove
+     */
+    public void remove(int index) {
+        int mask = keys.length - 1;
+        int i = find(index);
+        if (keys[i] == EMPTY) return;
+        size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY) break;
+            int home = slot(keys[j]);
+            // Move keys[j] into the hole at i only if its home slot does not lie cyclically in (i, j]
+            if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        values[i] = 0;
+    }
+
+    /**
+     * Number of stored (non-zero) elements
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    public double get(int index) {
+        int i = find(index);
+        return keys[i] == EMPTY ? 0 : values[i];
+    }
+
+    public double magnitude() {
+        double sqsum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                sqsum += values[i] * values[i];
+            }
+        }
+        return Math.sqrt(sqsum);
+    }
+
+    public void normVector() {
+        double mag = magnitude();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                values[i] /= mag;
+            }
+        }
+    }
+
+    public void add(ReadableDoubleVector v) {
+        v.forEachNonZero(this::add);
+    }
+
+    public void multiply(ReadableDoubleVector v) {
+        boolean zeroed = false;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                double other = v.get(keys[i]);
+                if (other == 0) {
+                    // Probe runs are broken by this, so the table is rebuilt below before any lookups
+                    keys[i] = EMPTY;
+                    zeroed = true;
+                } else {
+                    values[i] *= other;
+                }
+            }
+        }
+        // Elements multiplied by zero are dropped entirely, so rebuild the table without them
+        if (zeroed) {
+            int[] oldKeys = keys;
+            double[] oldValues = values;
+            allocate(keys.length);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = find(oldKeys[i]);
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                    size++;
+                }
+            }
+        }
+    }
+
+    public void applyOperation(Function<Double,Double> operation) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                values[i] = operation.apply(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Return the dot product of this vector with another
+     * Note that this operation is more efficient if you call it on the sparser vector
+     * @param v another vector
+     * @return their dot product
+     */
+    public double dot(ReadableDoubleVector v) {
+        double sum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                sum += values[i] * v.get(keys[i]);
+            }
+        }
+        return sum;
+    }
+
+    public void forEachNonZero(ElementConsumer consumer) {
+        // Hold on to the current arrays, so that v.add(v) sees each element exactly once
+        int[] keys = this.keys;
+        double[] values = this.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    public double dot(double[] dense) {
+        double sum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int k = keys[i];
+            if (k >= 0 && k < dense.length) {
+                sum += values[i] * dense[k];
+            }
+        }
+        return sum;
+    }
+
+    public Set<Integer> getKeySet() {
+        Set<Integer> keySet = new HashSet<>();
+        for (int k : keys) {
+            if (k != EMPTY) {
+                keySet.add(k);
+            }
+        }
+        return keySet;
+    }
+
+}
@@ -1,44 +1,68 @@
 package acronym;
 
+import model.CompactDocument;
+import model.TermDictionary;
 import model.Token;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
-import java.util.function.BiFunction;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A vector space used to calculate word vectors from context
  * Used by the AcronymExpander
+ * Safe to train from several threads at once: words are numbered as they are first seen by any thread, and
+ * finishTraining takes its counts between documents
  *
  * Created by ANONYMOUS on 10/23/15.
  */
 public class VectorSpaceDouble implements Serializable {
 
-    private Map<String,Integer> dictionary = new HashMap<>();
+    private final ConcurrentHashMap<String,Integer> dictionary = new ConcurrentHashMap<>();
+    // Number of the next new word, so that words are numbered 0, 1, 2... however many threads are adding them
+    private transient AtomicInteger nextWordInt = new AtomicInteger();
 
     // A count of how many "documents" (training examples) contain each term
     // Maps words (in their integer form, accessible through dictionary) to counts
-    private Map<Integer,Integer> documentsPerTerm = new HashMap<>();
+    // LongAdders, so that threads counting the same common words don't contend
+    private final ConcurrentHashMap<Integer,LongAdder> documentsPerTerm = new ConcurrentHashMap<>();
     // Number of "documents" (contexts) seen in training
-    private int totalDocs = 0;
+    private final LongAdder totalDocs = new LongAdder();
+    // Each document's counts are added under the read lock, and finishTraining takes the write lock, so it sees
+    // whole documents only
+    private transient ReadWriteLock countLock = new ReentrantReadWriteLock();
     // A log-transformed version of documentsPerTerm
     private DoubleVector idf;
+    // The same, as an array indexed by word, for weighting vectors as they are built; rebuilt when loaded
+    private transient double[] idfArray;
+    // Word numbers of the terms of compact documents, filled in as they are seen (see TermCache)
+    private transient volatile TermCache termCache;
+    // Terms with higher ids are looked up every time, so a long-lived TermDictionary can't grow the cache without bound
+    private static final int MAX_CACHED_TERMS = 1 << 20;
+    // Marks a token that isn't counted as a word
+    private static final int NOT_A_WORD = Integer.MIN_VALUE;
     // Should the IDF be squared, to effectively apply it to both test and train vectors (or raised to another power)?
     private final double idfPower;
 
     // This will be set to false when calculating the idf, and terms will no longer be added to IDF counts
-    private boolean training = true;
+    private volatile boolean training = true;
 
     // How quickly the sigmoid falls off. More of an idiosyncratic steepness parameter than a slope
     private double slope = 0.3;
-    // Default weighting function is sigmoid that decreases with distance (to 0.5 at maxDist)
-    // Need to cast to Serializable to save it
-    private BiFunction<Integer,Double,Double> distWeight = (BiFunction<Integer,Double,Double> & Serializable) (dist, maxDist) -> 1.0/(1.0+Math.exp(slope*(Math.abs(dist) - maxDist)));
     // Distance to use for weighting function
     private final double maxDist;
     // The actual size of the window; past threshWeight, we won't even consider words
     private final double windowSize;
+    // Weight of a word at each offset from the token of interest, from -maxOffset to maxOffset (at index offset + maxOffset)
+    // Weighting function is sigmoid that decreases with distance (to 0.5 at maxDist); rebuilt when loaded
+    private transient double[] distWeights;
+    private transient int maxOffset;
 
     /**
      * Constructors
@@ -52,6 +76,18 @@ public class VectorSpaceDouble implements Serializable {
         double threshWeight = 0.25;
         // algebra tells us this is the window size to use
         windowSize = Math.log(1.0 / threshWeight - 1) / slope + maxDist;
+        buildDistWeights();
+    }
+
+    private void buildDistWeights() {
+        maxOffset = (int) Math.floor(windowSize);
+        distWeights = new double[2 * maxOffset + 1];
+        for(int dist = -maxOffset; dist <= maxOffset; dist++) {
+            // The token of interest itself (offset 0) is never counted
+            if(dist != 0) {
+                distWeights[dist + maxOffset] = 1.0/(1.0+Math.exp(slope*(Math.abs(dist) - maxDist)));
+            }
+        }
     }
 
     /**
@@ -60,12 +96,18 @@ public class VectorSpaceDouble implements Serializable {
      * @return whether it is
      */
     private static boolean isAlphanumeric(String s) {
-        if(s.matches("[a-zA-Z0-9.&]*")) return true;
-        return false;
+        // Same as matching [a-zA-Z0-9.&]*, without a regex
+        for(int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if(!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '&')) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public int numWords() {
-        return dictionary.size();
+        return nextWordInt.get();
     }
 
     public DoubleVector getIdf() {
@@ -77,100 +119,320 @@ public class VectorSpaceDouble implements Serializable {
      * It sets up the IDF for each term and will save cycles at test time by stopping counting for the IDF
      */
     public void finishTraining() {
-        Map<Integer,Double> idf = new HashMap<>();
-        // Add 1 to denominator in case there are zero-counts, and to numerator in case there are 'all'-counts
-        for(Map.Entry<Integer,Integer> e : documentsPerTerm.entrySet()) {
-            double logged = Math.pow(Math.log( (1 + (double)totalDocs) / (e.getValue() ) ), idfPower);
-            idf.put(e.getKey(), logged);
+        countLock.writeLock().lock();
+        try {
+            // Documents still being vectorized won't be counted after this
+            training = false;
+            SparseVectorDouble idf = new SparseVectorDouble(documentsPerTerm.size());
+            double numDocs = totalDocs.sum();
+            // Add 1 to denominator in case there are zero-counts, and to numerator in case there are 'all'-counts
+            for(Map.Entry<Integer,LongAdder> e : documentsPerTerm.entrySet()) {
+                double logged = Math.pow(Math.log( (1 + numDocs) / (e.getValue().sum() ) ), idfPower);
+                idf.set(e.getKey(), logged);
+            }
+            this.idf = idf;
+            buildIdfArray();
+        } finally {
+            countLock.writeLock().unlock();
+        }
+    }
+
+    private void buildIdfArray() {
+        double[] array = new double[numWords()];
+        idf.forEachNonZero((wordInt, value) -> array[wordInt] = value);
+        idfArray = array;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        nextWordInt = new AtomicInteger(dictionary.size());
+        countLock = new ReentrantReadWriteLock();
+        buildDistWeights();
+        if(idf != null) {
+            buildIdfArray();
         }
-        this.idf = new WordVectorDouble(idf);
-        training = false;
+    }
+
+    /**
+     * Add the training counts of another vector space (trained on other documents) into this one
+     * Words new to this space are numbered after the existing ones, in the order the other space first saw them, so
+     * merging in document order numbers words just as training on all of the documents in one space would
+     * @param other a vector space that is still training (and won't be used afterwards)
+     * @return the number in this space of each of the other space's words (indexed by its number there)
+     */
+    public int[] merge(VectorSpaceDouble other) {
+        if(!training || !other.training) {
+            throw new IllegalStateException("Only vector spaces that are still training can be merged");
+        }
+        String[] otherWords = new String[other.numWords()];
+        for(Map.Entry<String,Integer> e : other.dictionary.entrySet()) {
+            otherWords[e.getValue()] = e.getKey();
+        }
+        int[] newIndex = new int[otherWords.length];
+        for(int i=0; i<otherWords.length; i++) {
+            newIndex[i] = addWord(otherWords[i]);
+        }
+        countLock.readLock().lock();
+        try {
+            for(Map.Entry<Integer,LongAdder> e : other.documentsPerTerm.entrySet()) {
+                documentsPerTerm.computeIfAbsent(newIndex[e.getKey()], x -> new LongAdder()).add(e.getValue().sum());
+            }
+            totalDocs.add(other.totalDocs.sum());
+        } finally {
+            countLock.readLock().unlock();
+        }
+        return newIndex;
     }
 
     /** Generate a WordVectorSpaceFloat from a list of Tokens
      * The Token of interest should also be passed so we know positions for weighting
      */
     /**
-     * Generate a WordVectorDouble from a list of Tokens
+     * Generate a SparseVectorDouble from a list of Tokens
      * @param context A list of Tokens taken from the Document that the word of interest appears in
      * @param tokenOfInterest The token that we want to calculate a vector for
      * @return The calculated vector
      */
-    public WordVectorDouble vectorize(List<Token> context, Token tokenOfInterest) {
+    public SparseVectorDouble vectorize(List<Token> context, Token tokenOfInterest) {
+        return vectorize(context, tokenOfInterest, null);
+    }
 
-        assert context.contains(tokenOfInterest);
+    /**
+     * Generate a SparseVectorDouble from a span of a compact document; same as vectorize on the corresponding Tokens
+     * @param document the document that the word of interest appears in
+     * @param start position of the first token of context
+     * @param end position after the last token of context
+     * @param center position of the token that we want to calculate a vector for
+     * @return The calculated vector
+     */
+    public SparseVectorDouble vectorize(CompactDocument document, int start, int end, int center) {
+        return vectorize(document, start, end, center, null);
+    }
 
-        Map<Integer,Double> wordVector = new HashMap<>();
+    /**
+     * Generate an IDF-weighted vector from a list of Tokens in one pass, as vectorize followed by multiplying by the
+     * IDF (and normalizing) would. Only for use after finishTraining; words not seen in training are left out
+     * @param context A list of Tokens taken from the Document that the word of interest appears in
+     * @param tokenOfInterest The token that we want to calculate a vector for
+     * @param normalize whether to scale the vector to unit length
+     * @return The calculated vector
+     */
+    public SparseVectorDouble vectorizeWeighted(List<Token> context, Token tokenOfInterest, boolean normalize) {
+        checkFinished();
+        SparseVectorDouble wordVector = vectorize(context, tokenOfInterest, idfArray);
+        if(normalize) {
+            wordVector.normVector();
+        }
+        return wordVector;
+    }
 
-        // Contains a list of words in the given tokens (standard forms, and filtering out non-alphanumeric tokens)
-        List<Integer> wordIntList = new ArrayList<>();
+    /**
+     * Compact document version of vectorizeWeighted
+     * @param document the document that the word of interest appears in
+     * @param start position of the first token of context
+     * @param end position after the last token of context
+     * @param center position of the token that we want to calculate a vector for
+     * @param normalize whether to scale the vector to unit length
+     * @return The calculated vector
+     */
+    public SparseVectorDouble vectorizeWeighted(CompactDocument document, int start, int end, int center, boolean normalize) {
+        checkFinished();
+        SparseVectorDouble wordVector = vectorize(document, start, end, center, idfArray);
+        if(normalize) {
+            wordVector.normVector();
+        }
+        return wordVector;
+    }
 
-        // If we're still determining IDF of tokens, we'll use this Set at the end to update those counts
-        Set<Integer> wordIntSetForIdf = new HashSet<>();
+    private void checkFinished() {
+        if(idfArray == null) {
+            throw new IllegalStateException("finishTraining must be called before vectorizeWeighted");
+        }
+    }
+
+    // If weights is given, each word's count is multiplied by its weight as it is added, and words without one are skipped
+    private SparseVectorDouble vectorize(List<Token> context, Token tokenOfInterest, double[] weights) {
+
+        assert context.contains(tokenOfInterest);
+
+        // The words in the given tokens (standard forms, and filtering out non-alphanumeric tokens), in order;
+        // the first numWords entries are used
+        int[] wordInts = new int[context.size()];
+        int numWords = 0;
 
         // Index of the center token in our list of words
         int centerWord = 0;
-        // To determine our position in the word list. Useful when calculating distance from center
-        int i = 0;
 
         for(Token token : context) {
 
             // Determine if we've hit the token of interest yet
             if (centerWord == 0 && token == tokenOfInterest) {
-                centerWord = i;
+                centerWord = numWords;
             }
 
             // Generate a list of words, if deemed acceptable words, whose values in the vector will be updated
-            String word = standardForm(token);
-            if (isAlphanumeric(word) || token == tokenOfInterest) {
-                int wordInt = dictionary.getOrDefault(word, -1);
-                if(training) {
-                    dictionary.putIfAbsent(word, dictionary.size());
-                    wordInt = dictionary.get(word);
+            int wordInt = wordInt(standardForm(token.getText()), token == tokenOfInterest);
+            if (wordInt != NOT_A_WORD) {
+                wordInts[numWords++] = wordInt;
+            }
+        }
+
+        return vectorize(wordInts, numWords, centerWord, weights);
+    }
+
+    private SparseVectorDouble vectorize(CompactDocument document, int start, int end, int center, double[] weights) {
+
+        int[] wordInts = new int[Math.max(0, end - start)];
+        int numWords = 0;
+        int centerWord = 0;
+
+        TermCache cache = termCache(document.getTermDictionary());
+
+        for(int k = start; k < end; k++) {
+            if (centerWord == 0 && k == center) {
+                centerWord = numWords;
+            }
+
+            int wordInt;
+            if (k == center) {
+                wordInt = wordInt(standardForm(document.getTerm(k)), true);
+            }
+            else {
+                // Each distinct term is normalized and looked up once, then remembered by term id
+                int termId = document.getTermId(k);
+                if (termId >= cache.words.length && termId < MAX_CACHED_TERMS) {
+                    cache = growTermCache(cache, termId);
                 }
-                wordIntList.add(wordInt);
-                i++;
-                if (training) {
-                    wordIntSetForIdf.add(wordInt);
+                int cached = termId < cache.words.length ? cache.words[termId] : 0;
+                if (cached == 0) {
+                    wordInt = wordInt(standardForm(document.getTerm(k)), false);
+                    if (termId < cache.words.length) {
+                        cache.words[termId] = wordInt == NOT_A_WORD ? -1 : wordInt + 2;
+                    }
+                }
+                else {
+                    wordInt = cached == -1 ? NOT_A_WORD : cached - 2;
                 }
             }
+            if (wordInt != NOT_A_WORD) {
+                wordInts[numWords++] = wordInt;
+            }
         }
-        // Array of integers that correspond to the position relative to tokenOfInterest of each word in the wordList
-        int[] position = IntStream.range(-centerWord, wordIntList.size() - centerWord).toArray();
-        i = 0;
-        for(int wordInt : wordIntList) {
-            if(Math.abs(position[i]) <= windowSize && position[i] != 0) {
-                double thisCount = distWeight.apply(position[i], maxDist);
-                double oldWordScore = 0;
-                // Don't add the center token (the one at position 0); that's the term of interest
-                if (position[i] != 0) {
-                    if (wordVector.containsKey(wordInt)) {
-                        oldWordScore = wordVector.get(wordInt);
-                    }
-                    wordVector.put(wordInt, oldWordScore + thisCount);
+
+        return vectorize(wordInts, numWords, centerWord, weights);
+    }
+
+    // The word number of a standard form (added to the dictionary if training; -1 if unknown otherwise), or NOT_A_WORD
+    // if it isn't alphanumeric (the token of interest always counts)
+    private int wordInt(String word, boolean isTokenOfInterest) {
+        if (!isAlphanumeric(word) && !isTokenOfInterest) {
+            return NOT_A_WORD;
+        }
+        if(training) {
+            return addWord(word);
+        }
+        return dictionary.getOrDefault(word, -1);
+    }
+
+    // The word number of a word, numbering it next if it is new
+    private int addWord(String word) {
+        Integer wordInt = dictionary.get(word);
+        if(wordInt == null) {
+            // Only one thread's function runs for a new word, so no number is skipped or given twice
+            wordInt = dictionary.computeIfAbsent(word, w -> nextWordInt.getAndIncrement());
+        }
+        return wordInt;
+    }
+
+    // Word numbers by term id, for one TermDictionary: 0 if not looked up yet, -1 if not a word, else word number + 2
+    // Shared between threads without locking. Entries never change once set, so a lost write only means a repeated lookup
+    private static class TermCache {
+        final TermDictionary terms;
+        final int[] words;
+
+        TermCache(TermDictionary terms, int[] words) {
+            this.terms = terms;
+            this.words = words;
+        }
+    }
+
+    private TermCache termCache(TermDictionary terms) {
+        TermCache cache = termCache;
+        if (cache == null || cache.terms != terms) {
+            cache = new TermCache(terms, new int[Math.min(Math.max(16, terms.size()), MAX_CACHED_TERMS)]);
+            termCache = cache;
+        }
+        return cache;
+    }
+
+    private TermCache growTermCache(TermCache cache, int termId) {
+        TermCache grown = new TermCache(cache.terms, Arrays.copyOf(cache.words,
+                Math.min(Math.max(termId + 1, cache.words.length * 2), MAX_CACHED_TERMS)));
+        termCache = grown;
+        return grown;
+    }
+
+    // Weight the words around the center by distance, and update IDF counts if training
+    private SparseVectorDouble vectorize(int[] wordInts, int numWords, int centerWord, double[] weights) {
+
+        SparseVectorDouble wordVector = new SparseVectorDouble();
+
+        // Only words within the window of the token of interest count
+        int first = Math.max(0, centerWord - maxOffset);
+        int last = Math.min(numWords - 1, centerWord + maxOffset);
+        for(int w = first; w <= last; w++) {
+            // Position relative to tokenOfInterest
+            int position = w - centerWord;
+            // Don't add the center token (the one at position 0); that's the term of interest
+            if (position != 0) {
+                int wordInt = wordInts[w];
+                double thisCount = distWeights[position + maxOffset];
+                if (weights == null) {
+                    wordVector.add(wordInt, thisCount);
+                }
+                else if (wordInt >= 0 && wordInt < weights.length) {
+                    wordVector.add(wordInt, thisCount * weights[wordInt]);
                 }
             }
-            i++;
         }
 
         // Update the counts needed for calculating an IDF if we're still in the training phase
         if(training) {
-            for (int wordInt : wordIntSetForIdf) {
-                documentsPerTerm.putIfAbsent(wordInt, 0);
-                documentsPerTerm.put(wordInt, documentsPerTerm.get(wordInt) + 1);
+            // Each distinct word counts once; sorting puts repeats next to each other
+            Arrays.sort(wordInts, 0, numWords);
+            countLock.readLock().lock();
+            try {
+                // Checked again, as finishTraining may have taken its counts since
+                if(training) {
+                    for (int w = 0; w < numWords; w++) {
+                        if (w == 0 || wordInts[w] != wordInts[w - 1]) {
+                            countDocument(wordInts[w]);
+                        }
+                    }
+                    totalDocs.increment();
+                }
+            } finally {
+                countLock.readLock().unlock();
             }
-            totalDocs++;
         }
-        return new WordVectorDouble(wordVector);
+        return wordVector;
+    }
+
+    private void countDocument(int wordInt) {
+        LongAdder count = documentsPerTerm.get(wordInt);
+        if(count == null) {
+            count = documentsPerTerm.computeIfAbsent(wordInt, x -> new LongAdder());
+        }
+        count.increment();
     }
 
     /**
      * Return a stemmed, case-insensitive, and de-numeralized version of the string
-     * @param t a token
+     * @param text a token's text
      * @return its flattened form
      */
-    private String standardForm(Token t) {
-        return AcronymModel.standardFormString(t.getText()).toLowerCase();
+    private String standardForm(String text) {
+        return AcronymModel.standardFormString(text).toLowerCase();
     }
 
 }
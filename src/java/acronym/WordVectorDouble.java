@@ -2,6 +2,7 @@ package acronym;
 
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
@@ -41,20 +42,25 @@ public class WordVectorDouble implements Serializable, DoubleVector {
     }
 
     // will add another vector onto this one
-    public void add(DoubleVector v) {
-        for (int i : v.getKeySet()) {
-            vector.put(i, this.get(i) + v.get(i));
+    public void add(ReadableDoubleVector v) {
+        if (v == this) {
+            applyOperation(x -> x + x);
+            return;
         }
+        v.forEachNonZero((i, x) -> vector.put(i, this.get(i) + x));
     }
 
     // sets this vector to the Hadamard/elementwise product with the argument vector
-    public void multiply(DoubleVector v) {
-        for(int k : getKeySet()) {
-            if(v.get(k) == 0) {
-                vector.remove(k);
+    public void multiply(ReadableDoubleVector v) {
+        Iterator<Map.Entry<Integer,Double>> it = vector.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Integer,Double> e = it.next();
+            double other = v.get(e.getKey());
+            if(other == 0) {
+                it.remove();
             }
             else {
-                vector.put(k, vector.get(k)*v.get(k));
+                e.setValue(e.getValue()*other);
             }
         }
     }
@@ -72,14 +78,20 @@ public class WordVectorDouble implements Serializable, DoubleVector {
      * @param v another vector
      * @return their dot product
      */
-    public double dot(DoubleVector v) {
+    public double dot(ReadableDoubleVector v) {
         double sum = 0;
-        for (int i : vector.keySet()) {
-            sum += vector.get(i) * v.get(i);
+        for (Map.Entry<Integer,Double> e : vector.entrySet()) {
+            sum += e.getValue() * v.get(e.getKey());
         }
         return sum;
     }
 
+    public void forEachNonZero(ElementConsumer consumer) {
+        for (Map.Entry<Integer,Double> e : vector.entrySet()) {
+            consumer.accept(e.getKey(), e.getValue());
+        }
+    }
+
     /**
      * Getters: get the key set, or get an element
      */
@@ -14,6 +14,10 @@ public class AcronymDatum {
     // correct sense:
     public String gold;
 
+    // Set instead of allTokens when the datum is created with a TermDictionary
+    public CompactDocument document;
+    public int indexOfInterest = -1;
+
     /**
      * Create a new datum for evaluation
      * @param context the text the test item appears in
@@ -33,4 +37,25 @@ public class AcronymDatum {
         }
     }
 
+    /**
+     * Create a new datum for evaluation, tokenized into a compact document rather than Tokens
+     * Only the token of interest gets a Token object; allTokens stays null
+     * @param context the text the test item appears in
+     * @param startPos the starting position of the acronym
+     * @param gold the correct sense
+     * @param tokenizer an initialized BreakIterator tokenizer
+     * @param terms dictionary in which to intern the tokens
+     */
+    public AcronymDatum(String context, int startPos, String gold, BreakIterator tokenizer, TermDictionary terms) {
+        this.gold = gold;
+        document = new CompactDocument(context, tokenizer, terms);
+        indexOfInterest = document.indexOf(startPos);
+        if(indexOfInterest < 0) {
+            System.out.println("Token not found at promised position in this document: " + context);
+        }
+        else {
+            tokenOfInterest = new Token(context, document.getBegin(indexOfInterest), document.getEnd(indexOfInterest));
+        }
+    }
+
 }
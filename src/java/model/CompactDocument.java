@@ -0,0 +1,138 @@
+package model;
+
+import com.ibm.icu.text.BreakIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A tokenized document without a Token object per token: parallel arrays of begin/end offsets and term ids
+ * (from a TermDictionary), filled in once during tokenization
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public class CompactDocument {
+
+    private final String text;
+    private final TermDictionary terms;
+
+    private final int size;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] termIds;
+
+    public CompactDocument(String documentText, BreakIterator tokenizer, TermDictionary terms) {
+        this.text = documentText;
+        this.terms = terms;
+
+        int[] begins = new int[16];
+        int[] ends = new int[16];
+        int[] termIds = new int[16];
+        int n = 0;
+
+        tokenizer.setText(documentText);
+
+        int begin = tokenizer.first();
+        int end = tokenizer.next();
+        while (end != BreakIterator.DONE) {
+            if(n == begins.length) {
+                begins = Arrays.copyOf(begins, n * 2);
+                ends = Arrays.copyOf(ends, n * 2);
+                termIds = Arrays.copyOf(termIds, n * 2);
+            }
+            begins[n] = begin;
+            ends[n] = end;
+            termIds[n] = terms.intern(documentText, begin, end);
+            n++;
+            begin = end;
+            end = tokenizer.next();
+        }
+
+        this.size = n;
+        this.begins = begins;
+        this.ends = ends;
+        this.termIds = termIds;
+    }
+
+    /**
+     * Compact form of an already-tokenized document
+     * @param document the document
+     * @param terms dictionary in which to intern its tokens
+     */
+    public CompactDocument(Document document, TermDictionary terms) {
+        List<Token> tokens = document.getTokens();
+        this.text = document.getText();
+        this.terms = terms;
+        size = tokens.size();
+        begins = new int[size];
+        ends = new int[size];
+        termIds = new int[size];
+        for(int i=0; i<size; i++) {
+            Token token = tokens.get(i);
+            begins[i] = token.getBegin();
+            ends[i] = token.getEnd();
+            termIds[i] = terms.intern(token.getText());
+        }
+    }
+
+    /**
+     * Number of tokens
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getBegin(int i) {
+        return begins[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    public int getTermId(int i) {
+        return termIds[i];
+    }
+
+    /**
+     * Text of a token (interned, so no new string is made)
+     * @param i position of the token
+     * @return its text
+     */
+    public String getTerm(int i) {
+        return terms.getTerm(termIds[i]);
+    }
+
+    public TermDictionary getTermDictionary() {
+        return terms;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Position of the token starting at a given offset
+     * @param begin offset in the text
+     * @return the token's position, or -1 if no token starts there
+     */
+    public int indexOf(int begin) {
+        int i = Arrays.binarySearch(begins, 0, size, begin);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * Build Token objects, for code that needs them
+     * @return a new list of this document's tokens
+     */
+    public List<Token> getTokens() {
+        List<Token> tokens = new ArrayList<>(size);
+        for(int i=0; i<size; i++) {
+            tokens.add(new Token(text, begins[i], ends[i]));
+        }
+        return tokens;
+    }
+
+}
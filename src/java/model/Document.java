@@ -14,9 +14,12 @@ import model.Token;
  */
 public class Document {
     List<Token> tokens;
+    // Token offsets refer to this
+    String text;
 
     public Document(String documentText, BreakIterator tokenizer) {
         tokens = new ArrayList<>();
+        text = documentText;
 
         tokenizer.setText(documentText);
 
@@ -32,4 +35,8 @@ public class Document {
     public List<Token> getTokens() {
         return tokens;
     }
+
+    public String getText() {
+        return text;
+    }
 }
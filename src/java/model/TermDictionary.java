@@ -0,0 +1,145 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Interns token texts as integer term ids, so that documents can be stored as arrays of ids
+ * Looking up a span of a document's text allocates nothing unless the term is new
+ * Safe to share between threads: terms already seen are found without locking, and only adding a term takes a lock
+ * Every distinct text is kept for as long as the dictionary (or any document using it) is, misspellings and numbers
+ * included. When annotating an open-ended stream of notes, use a new dictionary for each batch or request rather than
+ * one for the life of the process
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public class TermDictionary {
+
+    private static final double MAX_LOAD = 0.6;
+
+    // Everything a lookup needs, replaced as a whole when it grows. A term's text and hash are written before its slot
+    // in the table, so a reader that finds the slot also sees them
+    private static class Table {
+        // Open addressing: each slot holds a term id + 1, or 0 if empty
+        final AtomicIntegerArray slots;
+        final String[] terms;
+        // Hash of each term, by id, so the table can grow without rehashing strings
+        final int[] hashes;
+
+        Table(int capacity, String[] terms, int[] hashes) {
+            slots = new AtomicIntegerArray(capacity);
+            this.terms = terms;
+            this.hashes = hashes;
+        }
+    }
+
+    private volatile Table table = new Table(1024, new String[256], new int[256]);
+    // Only changed while holding the lock
+    private volatile int size = 0;
+
+    /**
+     * Id of the text between begin and end, adding it if it hasn't been seen
+     * @param text text containing the term
+     * @param begin index of the first character of the term
+     * @param end index after the last character of the term
+     * @return the term's id
+     */
+    public int intern(String text, int begin, int end) {
+        // Same as String.hashCode, without taking the substring
+        int hash = 0;
+        for(int i=begin; i<end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+
+        int id = find(table, hash, text, begin, end);
+        if(id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            // Someone else may have added it since we looked
+            Table current = table;
+            id = find(current, hash, text, begin, end);
+            if(id >= 0) {
+                return id;
+            }
+            id = size;
+            if(id == current.terms.length || id + 1 > current.slots.length() * MAX_LOAD) {
+                current = grow(current);
+            }
+            current.terms[id] = text.substring(begin, end);
+            current.hashes[id] = hash;
+            insert(current, hash, id);
+            size = id + 1;
+            return id;
+        }
+    }
+
+    public int intern(String term) {
+        return intern(term, 0, term.length());
+    }
+
+    /**
+     * Text of a term
+     * @param id an id returned by intern
+     * @return the term
+     */
+    public String getTerm(int id) {
+        return table.terms[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Id of the term in this table, or -1
+    private static int find(Table t, int hash, String text, int begin, int end) {
+        int mask = t.slots.length() - 1;
+        int slot = spread(hash) & mask;
+        int entry;
+        while((entry = t.slots.get(slot)) != 0) {
+            int id = entry - 1;
+            if(t.hashes[id] == hash && matches(t.terms[id], text, begin, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static void insert(Table t, int hash, int id) {
+        int mask = t.slots.length() - 1;
+        int slot = spread(hash) & mask;
+        while(t.slots.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        t.slots.set(slot, id + 1);
+    }
+
+    private static boolean matches(String term, String text, int begin, int end) {
+        return term.length() == end - begin && term.regionMatches(0, text, begin, end - begin);
+    }
+
+    // Called with the lock held; readers keep using the old table until the new one is published
+    private Table grow(Table old) {
+        int capacity = old.terms.length;
+        if(size == capacity) {
+            capacity <<= 1;
+        }
+        int slots = old.slots.length();
+        while(size + 1 > slots * MAX_LOAD) {
+            slots <<= 1;
+        }
+        Table grown = new Table(slots, Arrays.copyOf(old.terms, capacity), Arrays.copyOf(old.hashes, capacity));
+        for(int id=0; id<size; id++) {
+            insert(grown, grown.hashes[id], id);
+        }
+        table = grown;
+        return grown;
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.*;
 import com.ibm.icu.text.BreakIterator;
 import com.ibm.icu.text.RuleBasedBreakIterator;
 import model.AcronymDatum;
+import model.TermDictionary;
 import acronym.AcronymModel;
 
 /**
@@ -43,6 +44,7 @@ public class AcronymTest {
 
     private static List<AcronymDatum> generateAcronymData(String filename) throws IOException {
         List<AcronymDatum> acronymData = new ArrayList<>();
+        TermDictionary terms = new TermDictionary();
         BufferedReader fileReader = new BufferedReader(new FileReader(filename));
 
         String line;
@@ -59,7 +61,7 @@ public class AcronymTest {
             // sub out the non-canonical forms, which get tokenized funny
             String subbedString = splitLine[6];
             subbedString = subbedString.substring(0, startPos) + splitLine[0] + subbedString.substring(endPos);
-            AcronymDatum acronymDatum = new AcronymDatum(subbedString, startPos, sense, tokenizer);
+            AcronymDatum acronymDatum = new AcronymDatum(subbedString, startPos, sense, tokenizer, terms);
             acronymData.add(acronymDatum);
 
         }
@@ -74,7 +76,8 @@ public class AcronymTest {
 
         for(AcronymDatum acronymDatum : acronymData) {
             total++;
-            String hypothesis = model.findBestSense(acronymDatum.allTokens.getTokens(), acronymDatum.tokenOfInterest);
+            if(acronymDatum.indexOfInterest < 0) continue;
+            String hypothesis = model.findBestSense(acronymDatum.document, acronymDatum.indexOfInterest);
 
             if(hypothesis.equals(acronymDatum.gold)) {
                 correct++;
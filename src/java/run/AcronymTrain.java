@@ -3,17 +3,34 @@ package run;
 import acronym.*;
 import com.ibm.icu.text.BreakIterator;
 import com.ibm.icu.text.RuleBasedBreakIterator;
-import model.Document;
+import model.CompactDocument;
+import model.TermDictionary;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.*;
 
 public class AcronymTrain {
 
     private static BreakIterator tokenizer;
     private static final String TOKENIZER_PARAMS_FILE = "/tokenizer_break_rules.txt";
 
+    // Training text is read, tokenized, and trained on in separate stages:
+    // a reader thread hands batches of lines to a pool of tokenizer threads, and this thread trains on the tokenized
+    // batches in file order (so the model is the same as if one thread did everything)
+    private static final int BATCH_LINES = 1000;
+    private static int numTokenizerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    // Marks the end of the batches
+    private static final Future<List<CompactDocument>> NO_MORE_BATCHES = CompletableFuture.completedFuture(null);
+
+    // With more than one shard, the training file is split into that many contiguous parts, each read, tokenized,
+    // and trained on by its own thread and trainer, and the trainers are then merged in file order
+    private static int numTrainingShards = 1;
+
     public static void main(String[] args) throws Exception {
 
         if(args[0].equals("test")) {
@@ -23,8 +40,16 @@ public class AcronymTrain {
 
         if (args.length < 5) {
             System.out.println("Must provide five arguments for training: model type, output file, training data file, acronym expansions file, sense IDs file");
+            System.out.println("(and optionally: number of shards to train in parallel; then, for lr and svm, a convergence tolerance for early stopping, a maximum number of epochs, and a number of threads for each acronym with at least " + AcronymGradientDescentModelTrainer.DEFAULT_HOGWILD_MIN_EXAMPLES + " examples)");
             throw new Exception();
         }
+        if (args.length > 5) {
+            setNumTrainingShards(Integer.parseInt(args[5]));
+        }
+        // Zero runs every epoch (the trainers' default); otherwise training for an acronym stops once its accuracy plateaus
+        double convergenceTolerance = args.length > 6 ? Double.parseDouble(args[6]) : 0;
+        int maxEpochs = args.length > 7 ? Integer.parseInt(args[7]) : 0;
+        int hogwildThreads = args.length > 8 ? Integer.parseInt(args[8]) : 1;
         String dataFile = args[2];
         String modelType = args[0].toLowerCase();
         String modelPath = args[1];
@@ -37,9 +62,21 @@ public class AcronymTrain {
         if (modelType.equals("cos")) {
             trainer = new AcronymVectorModelTrainer(expansionMap, uniqueIds);
         } else if (modelType.equals("svm")) {
-            trainer = new AcronymSvmModelTrainer(expansionMap, uniqueIds);
+            AcronymSvmModelTrainer svmTrainer = new AcronymSvmModelTrainer(expansionMap, uniqueIds);
+            svmTrainer.setConvergence(convergenceTolerance, GradientDescentModel.DEFAULT_PATIENCE);
+            svmTrainer.setHogwildThreads(hogwildThreads, AcronymGradientDescentModelTrainer.DEFAULT_HOGWILD_MIN_EXAMPLES);
+            if (maxEpochs > 0) {
+                svmTrainer.setNumReps(maxEpochs);
+            }
+            trainer = svmTrainer;
         } else if (modelType.equals("lr")) {
-            trainer = new AcronymLogisticModelTrainer(expansionMap, uniqueIds);
+            AcronymLogisticModelTrainer lrTrainer = new AcronymLogisticModelTrainer(expansionMap, uniqueIds);
+            lrTrainer.setConvergence(convergenceTolerance, GradientDescentModel.DEFAULT_PATIENCE);
+            lrTrainer.setHogwildThreads(hogwildThreads, AcronymGradientDescentModelTrainer.DEFAULT_HOGWILD_MIN_EXAMPLES);
+            if (maxEpochs > 0) {
+                lrTrainer.setNumReps(maxEpochs);
+            }
+            trainer = lrTrainer;
         } else if (modelType.equals("nb")) {
             trainer = new AcronymBayesModelTrainer(expansionMap, uniqueIds);
         } else if (modelType.equals("ri")) {
@@ -52,22 +89,208 @@ public class AcronymTrain {
         }
 
         System.out.println("Training a model for classifier " + modelType + " for data at " + dataFile);
-        trainModelOnFile(trainer, dataFile);
+        if (numTrainingShards > 1) {
+            trainModelOnFileSharded(trainer, dataFile, numTrainingShards);
+        } else {
+            trainModelOnFile(trainer, dataFile);
+        }
 
         trainer.getModel().serialize(modelPath);
     }
 
     public static void trainModelOnFile(AcronymModelTrainer trainer, String dataFile) throws IOException {
-        BufferedReader fileReader = new BufferedReader(new FileReader(dataFile));
-        String line;
-        while((line = fileReader.readLine()) != null) {
-            if(line.length() > 2) {
-                Document doc = new Document(line, tokenizer);
-                trainer.addDocumentToModel(doc);
+        TermDictionary terms = new TermDictionary();
+
+        // BreakIterators keep state, so each tokenizer thread works with its own copy
+        ThreadLocal<BreakIterator> threadTokenizer = ThreadLocal.withInitial(() -> (BreakIterator) tokenizer.clone());
+        ExecutorService tokenizers = Executors.newFixedThreadPool(numTokenizerThreads);
+        // Batches being tokenized, in file order. Bounded, so reading can't get far ahead of training
+        BlockingQueue<Future<List<CompactDocument>>> batches = new ArrayBlockingQueue<>(numTokenizerThreads * 2);
+
+        Thread reader = new Thread(() -> {
+            try {
+                readBatches(dataFile, batches, tokenizers, threadTokenizer, terms);
+                batches.put(NO_MORE_BATCHES);
+            } catch (InterruptedException e) {
+                // Training stopped early
+            } catch (Exception e) {
+                // Pass the failure on to the training thread, which is waiting for the next batch
+                CompletableFuture<List<CompactDocument>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                try {
+                    batches.put(failed);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            Future<List<CompactDocument>> batch;
+            while((batch = batches.take()) != NO_MORE_BATCHES) {
+                for(CompactDocument doc : batch.get()) {
+                    trainer.addDocumentToModel(doc);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while training on " + dataFile);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Failed to tokenize " + dataFile, e.getCause());
+        } finally {
+            reader.interrupt();
+            tokenizers.shutdownNow();
+        }
+    }
+
+    private static void readBatches(String dataFile, BlockingQueue<Future<List<CompactDocument>>> batches, ExecutorService tokenizers,
+                                    ThreadLocal<BreakIterator> threadTokenizer, TermDictionary terms) throws IOException, InterruptedException {
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(dataFile))) {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while((line = fileReader.readLine()) != null) {
+                if(line.length() > 2) {
+                    lines.add(line);
+                }
+                if(lines.size() == BATCH_LINES) {
+                    batches.put(tokenize(tokenizers, threadTokenizer, terms, lines));
+                    lines = new ArrayList<>();
+                }
+            }
+            batches.put(tokenize(tokenizers, threadTokenizer, terms, lines));
+        }
+    }
+
+    private static Future<List<CompactDocument>> tokenize(ExecutorService tokenizers, ThreadLocal<BreakIterator> threadTokenizer, TermDictionary terms, List<String> lines) {
+        return tokenizers.submit(() -> {
+            BreakIterator lineTokenizer = threadTokenizer.get();
+            List<CompactDocument> docs = new ArrayList<>(lines.size());
+            for(String line : lines) {
+                docs.add(new CompactDocument(line, lineTokenizer, terms));
+            }
+            return docs;
+        });
+    }
+
+    /**
+     * Train on a file in parallel: each of numShards contiguous parts of the file is trained on by a separate shard
+     * of the trainer (see AcronymModelTrainer.newShard), and the shards are merged into the trainer in file order
+     * @param trainer the trainer to add the file's documents to
+     * @param dataFile training text, one document per line
+     * @param numShards number of parts (and threads)
+     * @throws IOException
+     */
+    public static void trainModelOnFileSharded(AcronymModelTrainer trainer, String dataFile, int numShards) throws IOException {
+        TermDictionary terms = new TermDictionary();
+        File file = new File(dataFile);
+        if(!file.isFile()) {
+            throw new FileNotFoundException(dataFile);
+        }
+        long length = file.length();
+
+        ExecutorService shardThreads = Executors.newFixedThreadPool(numShards);
+        List<Future<AcronymModelTrainer>> shards = new ArrayList<>();
+        for(int i=0; i<numShards; i++) {
+            long begin = length * i / numShards;
+            long end = length * (i+1) / numShards;
+            BreakIterator shardTokenizer = (BreakIterator) tokenizer.clone();
+            AcronymModelTrainer shard = trainer.newShard();
+            shards.add(shardThreads.submit(() -> {
+                trainShard(shard, dataFile, begin, end, shardTokenizer, terms);
+                return shard;
+            }));
+        }
+
+        try {
+            for(Future<AcronymModelTrainer> shard : shards) {
+                trainer.merge(shard.get());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while training on " + dataFile);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Failed to train on " + dataFile, e.getCause());
+        } finally {
+            shardThreads.shutdownNow();
         }
     }
 
+    // Train on the lines of a file that start at byte offsets from begin up to (not including) end
+    // Lines are split as BufferedReader.readLine splits them, so the shards together see the same documents that
+    // trainModelOnFile does (splitting on bytes is safe in ASCII-compatible encodings such as UTF-8)
+    private static void trainShard(AcronymModelTrainer shard, String dataFile, long begin, long end,
+                                   BreakIterator lineTokenizer, TermDictionary terms) throws IOException {
+        try (FileInputStream file = new FileInputStream(dataFile)) {
+            long position = 0;
+            if(begin > 0) {
+                position = begin - 1;
+                file.getChannel().position(position);
+            }
+            InputStream in = new BufferedInputStream(file);
+            ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+            // A line that starts before begin belongs to the previous shard, so skip to just past the end of it
+            if(begin > 0) {
+                position += readLine(in, lineBytes);
+            }
+            while(position < end) {
+                int read = readLine(in, lineBytes);
+                if(read == 0) break;
+                position += read;
+                String line = lineBytes.toString(Charset.defaultCharset());
+                if(line.length() > 2) {
+                    shard.addDocumentToModel(new CompactDocument(line, lineTokenizer, terms));
+                }
+            }
+        }
+    }
+
+    // Read one line's bytes into lineBytes, without its ending ('\n', '\r', or "\r\n");
+    // returns the number of bytes read from in (0 at the end of the file)
+    private static int readLine(InputStream in, ByteArrayOutputStream lineBytes) throws IOException {
+        lineBytes.reset();
+        int read = 0;
+        int b;
+        while((b = in.read()) != -1) {
+            read++;
+            if(b == '\n') break;
+            if(b == '\r') {
+                in.mark(1);
+                if(in.read() == '\n') {
+                    read++;
+                } else {
+                    in.reset();
+                }
+                break;
+            }
+            lineBytes.write(b);
+        }
+        return read;
+    }
+
+    /**
+     * Number of threads (and shards of the trainer) to train with in main. With the default of 1, training follows
+     * a single trainer's pipeline (see trainModelOnFile)
+     * @param numShards at least 1
+     */
+    public static void setNumTrainingShards(int numShards) {
+        numTrainingShards = Math.max(1, numShards);
+    }
+
+    /**
+     * Number of threads to tokenize training text with (defaults to one less than the number of processors)
+     * @param numThreads at least 1
+     */
+    public static void setNumTokenizerThreads(int numThreads) {
+        numTokenizerThreads = Math.max(1, numThreads);
+    }
+
     public static void initializeTokenizer() throws IOException {
         String rules = new Scanner( AcronymTrain.class.getResourceAsStream(TOKENIZER_PARAMS_FILE) ).useDelimiter("\\A").next();
         tokenizer = new RuleBasedBreakIterator(rules);
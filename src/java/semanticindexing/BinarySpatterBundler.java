@@ -0,0 +1,118 @@
+package semanticindexing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates a weighted majority vote over binary spatter vectors, 64 dimensions at a time
+ * Vote counts are kept as bit-sliced integer counters: plane p holds bit p of every dimension's count, so adding a
+ * vector is a ripple-carry add over long words and thresholding is a word-wise comparison against a constant
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public class BinarySpatterBundler {
+
+    // Non-integer weights are rounded to this many fractional bits
+    private static final int FRACTION_BITS = 16;
+
+    // Number of 64-bit words per vector
+    private final int numWords;
+
+    // planes.get(p)[w] holds bit p of the vote count of each of the 64 dimensions in word w
+    private final List<long[]> planes = new ArrayList<>();
+
+    // Sum of all weights added so far (each dimension's vote is its count minus the votes against it)
+    private long totalWeight = 0;
+
+    // Whether weights have been given in fixed point (and so totalWeight and the counts are scaled)
+    private boolean fixedPoint = false;
+
+    /**
+     * @param dimensionality number of bits in the vectors that will be bundled
+     */
+    public BinarySpatterBundler(int dimensionality) {
+        numWords = (dimensionality + 63) / 64;
+    }
+
+    /**
+     * Add a vector with an integer weight; a negative weight votes for the complement of the vector
+     * @param words the vector's bits, 64 to a word (as from BinarySpatterVectorBit.getWords; may be shorter than the dimensionality)
+     * @param weight how many votes the vector gets
+     */
+    public void add(long[] words, long weight) {
+        if(fixedPoint) {
+            weight <<= FRACTION_BITS;
+        }
+        addScaled(words, weight);
+    }
+
+    /**
+     * Add a vector with a real-valued weight, which will be rounded to a fixed-point integer
+     * @param words the vector's bits
+     * @param weight how many votes the vector gets
+     */
+    public void add(long[] words, double weight) {
+        if(!fixedPoint) {
+            // Switch to fixed point, rescaling any integer votes already counted
+            fixedPoint = true;
+            for(int s = 0; s < FRACTION_BITS; s++) {
+                planes.add(0, new long[numWords]);
+            }
+            totalWeight <<= FRACTION_BITS;
+        }
+        addScaled(words, Math.round(weight * (1L << FRACTION_BITS)));
+    }
+
+    private void addScaled(long[] words, long weight) {
+        boolean complement = weight < 0;
+        if(complement) {
+            weight = -weight;
+        }
+        totalWeight += weight;
+        // Add the vector once into each plane where the weight has a set bit
+        for(int p = 0; weight != 0; p++, weight >>>= 1) {
+            if((weight & 1) == 0) continue;
+            for(int w = 0; w < numWords; w++) {
+                long carry = w < words.length ? words[w] : 0;
+                if(complement) carry = ~carry;
+                for(int q = p; carry != 0; q++) {
+                    while(q >= planes.size()) {
+                        planes.add(new long[numWords]);
+                    }
+                    long[] plane = planes.get(q);
+                    long overflow = plane[w] & carry;
+                    plane[w] ^= carry;
+                    carry = overflow;
+                }
+            }
+        }
+    }
+
+    /**
+     * Majority vote: a dimension is set if more weight voted for it than against it (ties are unset)
+     * @return the thresholded bits, 64 to a word
+     */
+    public long[] threshold() {
+        // Votes for minus votes against is count - (total - count), so the bit is set when count > total / 2
+        long limit = totalWeight >>> 1;
+        long[] result = new long[numWords];
+        for(int w = 0; w < numWords; w++) {
+            // Compare each count with the limit, most significant plane first
+            long greater = 0;
+            long equal = -1L;
+            for(int p = Math.max(planes.size(), 64 - Long.numberOfLeadingZeros(limit)) - 1; p >= 0; p--) {
+                long bits = p < planes.size() ? planes.get(p)[w] : 0;
+                if(((limit >>> p) & 1) == 1) {
+                    equal &= bits;
+                }
+                else {
+                    greater |= equal & bits;
+                    equal &= ~bits;
+                }
+            }
+            result[w] = greater;
+        }
+        return result;
+    }
+
+}
@@ -1,83 +1,123 @@
 package semanticindexing;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
- * Binary spatter vector, using BitSet for memory efficiency (rather than boolean, which takes one byte per entry)
+ * Binary spatter vector, packed 64 bits to a long for memory efficiency (rather than boolean, which takes one byte per
+ * entry), so that XOR and Hamming distance work a whole word at a time
  *
  * Created by ANONYMOUS on 11/20/15.
  */
 public class BinarySpatterVectorBit implements Serializable {
 
-    private BitSet vector;
+    // Bit i is bit (i % 64) of words[i / 64]; same layout as BitSet.toLongArray
+    private long[] words;
 
     // Use for sums. Will stay unset for non-sum vectors
-    private double[] votingRecord = null;
+    private transient BinarySpatterBundler votingRecord = null;
 
     /**
      * Constructor for creating a new randomized vector.
      * @param d dimensionality of the vector (defaults to 10000)
      */
     public BinarySpatterVectorBit(int d) {
-        Random random = new Random();
-        vector = new BitSet(d);
-        for(int i=0; i<d; i++) {
-            if(random.nextBoolean())
-                vector.flip(i);
-        }
+        this(d, new Random());
     }
     public BinarySpatterVectorBit() {
         this(10000);
     }
 
+    /**
+     * Randomized vector drawn from the given generator
+     * @param d dimensionality of the vector
+     * @param random source of the bits
+     */
+    public BinarySpatterVectorBit(int d, Random random) {
+        words = new long[numWords(d)];
+        for(int w=0; w<words.length; w++) {
+            words[w] = random.nextLong();
+        }
+        clearAbove(d);
+    }
+
+    /**
+     * Randomized vector drawn from the given generator (see IndexHash)
+     * @param d dimensionality of the vector
+     * @param random source of the bits
+     */
+    public BinarySpatterVectorBit(int d, SplittableRandom random) {
+        words = new long[numWords(d)];
+        for(int w=0; w<words.length; w++) {
+            words[w] = random.nextLong();
+        }
+        clearAbove(d);
+    }
+
     public BinarySpatterVectorBit(BitSet b) {
-        vector = (BitSet) b.clone();
+        words = Arrays.copyOf(b.toLongArray(), numWords(b.size()));
+    }
+
+    /**
+     * Wrap an array of words (not copied)
+     * @param words the vector's bits, 64 to a word
+     */
+    public BinarySpatterVectorBit(long[] words) {
+        this.words = words;
     }
 
     // Generate a vector from an array of double, with negative -> 0 and positive -> 1
     public BinarySpatterVectorBit(double[] v) {
         Random random = new Random();
-        vector = new BitSet(v.length);
+        words = new long[numWords(v.length)];
         for(int i=0; i<v.length; i++) {
-            if(v[i] == 0 && random.nextBoolean())
-                    vector.flip(i);
-            else if(v[i] > 0)
-                vector.flip(i);
+            if((v[i] == 0 && random.nextBoolean()) || v[i] > 0)
+                words[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private static int numWords(int d) {
+        return (d + 63) >>> 6;
+    }
+
+    // Clear any bits past the dimensionality in the last word
+    private void clearAbove(int d) {
+        if((d & 63) != 0) {
+            words[words.length - 1] &= -1L >>> (64 - (d & 63));
         }
     }
 
     public boolean get(int i) {
-        return vector.get(i);
+        return (words[i >>> 6] & (1L << i)) != 0;
     }
 
     public int length() {
-        return vector.size();
+        return words.length * 64;
     }
 
     // Will add another vector to this one's voting record
     // WARNING: will not update the voting record
     public void add(BinarySpatterVectorBit v, double weight) {
-        if(votingRecord == null) {
-            votingRecord = new double[vector.size()];
-        }
+        getVotingRecord().add(v.words, weight);
+    }
 
-        for(int i=0; i<vector.size(); i++) {
-            if(v.get(i)) {
-                votingRecord[i] += weight;
-            }
-            else {
-                votingRecord[i] -= weight;
-            }
+    // Integer weights (co-occurrence counts, e.g.) are counted exactly
+    public void add(BinarySpatterVectorBit v, long weight) {
+        getVotingRecord().add(v.words, weight);
+    }
+
+    private BinarySpatterBundler getVotingRecord() {
+        if(votingRecord == null) {
+            votingRecord = new BinarySpatterBundler(length());
         }
+        return votingRecord;
     }
 
     public void updateToVotingRecord() {
-        vector = new BitSet(vector.size());
-        for(int i=0; i<vector.size(); i++) {
-            vector.set(i, votingRecord[i] > 0);
-        }
+        words = votingRecord.threshold();
     }
 
     // To save memory if the voting record is no longer important
@@ -87,13 +127,51 @@ public class BinarySpatterVectorBit implements Serializable {
 
     // Returns the hamming distance between this vector and another
     public int hamming(BinarySpatterVectorBit v) {
-        BitSet differentBits = (BitSet) vector.clone();
-        differentBits.xor(v.getBitSet());
-        return differentBits.cardinality();
+        return hamming(v, Integer.MAX_VALUE);
     }
 
+    /**
+     * Hamming distance that gives up once it is known to be over a limit (when looking for the nearest vector, e.g.)
+     * @param v another vector
+     * @param limit the largest distance of interest
+     * @return the distance, or some number greater than limit if the distance is greater than limit
+     */
+    public int hamming(BinarySpatterVectorBit v, int limit) {
+        long[] other = v.words;
+        int dist = 0;
+        for(int w=0; w<words.length; w++) {
+            dist += Long.bitCount(words[w] ^ other[w]);
+            if(dist > limit) break;
+        }
+        return dist;
+    }
+
+    /**
+     * Hamming distance between (this XOR bound) and v, without building the bound vector
+     * @param bound the vector to bind this one with
+     * @param v the vector to compare against
+     * @param limit the largest distance of interest
+     * @return the distance, or some number greater than limit if the distance is greater than limit
+     */
+    public int hamming(BinarySpatterVectorBit bound, BinarySpatterVectorBit v, int limit) {
+        long[] b = bound.words;
+        long[] other = v.words;
+        int dist = 0;
+        for(int w=0; w<words.length; w++) {
+            dist += Long.bitCount(words[w] ^ b[w] ^ other[w]);
+            if(dist > limit) break;
+        }
+        return dist;
+    }
+
+    // The backing words themselves (not a copy), for bundling without allocation
+    public long[] getWords() {
+        return words;
+    }
+
+    // Returns a copy of this vector's bits
     public BitSet getBitSet() {
-        return vector;
+        return BitSet.valueOf(words);
     }
 
     // Normalized hamming dist
@@ -102,12 +180,19 @@ public class BinarySpatterVectorBit implements Serializable {
     }
 
     public BinarySpatterVectorBit xor(BinarySpatterVectorBit v) {
-        assert v.length() == vector.size();
+        assert v.length() == length();
 
-        BitSet xored = (BitSet) vector.clone();
-        xored.xor(v.getBitSet());
+        BinarySpatterVectorBit xored = new BinarySpatterVectorBit(Arrays.copyOf(words, words.length));
+        xored.xorInPlace(v);
+        return xored;
+    }
 
-        return new BinarySpatterVectorBit(xored);
+    // Binds another vector into this one (this = this XOR v) without allocating
+    public void xorInPlace(BinarySpatterVectorBit v) {
+        long[] other = v.words;
+        for(int w=0; w<words.length; w++) {
+            words[w] ^= other[w];
+        }
     }
 
 }
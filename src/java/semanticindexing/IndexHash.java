@@ -0,0 +1,54 @@
+package semanticindexing;
+
+import java.util.SplittableRandom;
+
+/**
+ * Index vectors (random indexing contexts, spatter vectors for acronyms and senses) are random noise, so rather than
+ * storing them, models derive each one from a hash of (seed, id). The same seed and id always give the same vector
+ *
+ * Created by ANONYMOUS on 10/17/16.
+ */
+public final class IndexHash {
+
+    public static final long DEFAULT_SEED = 0x5eed5eed5eed5eedL;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private IndexHash() {
+    }
+
+    // SplitMix64 finalizer: every input bit affects every output bit
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long hash(long seed, long id) {
+        return mix(seed + mix(id + GOLDEN_GAMMA));
+    }
+
+    public static long hash(long seed, String id) {
+        // FNV-1a over the characters, so ids that share a String.hashCode still get different vectors
+        long h = 0xcbf29ce484222325L;
+        for(int i=0; i<id.length(); i++) {
+            h = (h ^ id.charAt(i)) * 0x100000001b3L;
+        }
+        return hash(seed, h);
+    }
+
+    /**
+     * A generator for the index vector with this id
+     * @param seed the model's seed
+     * @param id the id of the vector (word number, e.g.)
+     * @return a generator whose output depends only on seed and id
+     */
+    public static SplittableRandom random(long seed, long id) {
+        return new SplittableRandom(hash(seed, id));
+    }
+
+    public static SplittableRandom random(long seed, String id) {
+        return new SplittableRandom(hash(seed, id));
+    }
+
+}
@@ -33,6 +33,34 @@ public class RandomIndexingContext implements Serializable {
         }
     }
 
+    /**
+     * Context drawn from the given generator (see IndexHash), without any intermediate set
+     * @param d dimensionality
+     * @param n number of 1s (and of -1s)
+     * @param random source of the indices
+     */
+    public RandomIndexingContext(int d, int n, SplittableRandom random) {
+        this.n = n;
+        nonzero = new int[n*2];
+
+        int i = 0;
+        while(i < n*2) {
+            int nextInt = random.nextInt(d);
+            // n is small, so a linear scan for duplicates is cheaper than hashing
+            boolean duplicate = false;
+            for(int j=0; j<i; j++) {
+                if(nonzero[j] == nextInt) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if(!duplicate) {
+                nonzero[i] = nextInt;
+                i++;
+            }
+        }
+    }
+
     public int[] getOnes() {
         return Arrays.copyOfRange(nonzero, 0, n);
     }
@@ -40,6 +68,15 @@ public class RandomIndexingContext implements Serializable {
         return Arrays.copyOfRange(nonzero, n, n*2);
     }
 
+    // The backing indices, not a copy: the first n are the 1s and the rest the -1s
+    int[] getNonZero() {
+        return nonzero;
+    }
+
+    int getN() {
+        return n;
+    }
+
     public String toString() {
         String s = "";
         for(int i=0; i<n*2; i++) {
@@ -5,21 +5,31 @@ import java.util.*;
 
 /**
  * An array (not HashMap) flavor of RandomIndexingVector
+ * Dense, so adding contexts and taking dot products are plain loops over a float[]
  *
  * Created by ANONYMOUS on 10/30/15.
  */
 public class RandomIndexingVectorArray implements Serializable {
 
-    private final int SIZE = 1800;
+    private static final int DEFAULT_SIZE = 1800;
 
-    // Using Double in case we want normalization (not simple thresholding)
-    private float[] vector;
+    // Using float to halve the memory of a double[]; sums are still taken in double
+    private final float[] vector;
 
     public RandomIndexingVectorArray() {
-        vector = new float[SIZE];
+        this(DEFAULT_SIZE);
     }
 
-    public RandomIndexingVectorArray(Map<Integer, Float> map) {
+    /**
+     * A zero vector
+     * @param dimensionality should match that of the contexts that will be added
+     */
+    public RandomIndexingVectorArray(int dimensionality) {
+        vector = new float[dimensionality];
+    }
+
+    public RandomIndexingVectorArray(Map<Integer, Float> map, int dimensionality) {
+        this(dimensionality);
         for(Map.Entry<Integer,Float> e : map.entrySet()) {
             vector[e.getKey()] = e.getValue();
         }
@@ -29,10 +39,14 @@ public class RandomIndexingVectorArray implements Serializable {
         this.vector = vector;
     }
 
+    public int dimensionality() {
+        return vector.length;
+    }
+
     public double sum() {
         double sum = 0;
-        for(int i=0; i<SIZE; i++) {
-            sum += vector[i];
+        for(float x : vector) {
+            sum += x;
         }
         return sum;
     }
@@ -43,17 +57,17 @@ public class RandomIndexingVectorArray implements Serializable {
 
     public double length() {
         double sqsum = 0;
-        for(int i=0; i<SIZE; i++) {
-            sqsum += Math.pow(vector[i], 2);
+        for(float x : vector) {
+            sqsum += (double) x * x;
         }
-        return Math.pow(sqsum, 0.5);
+        return Math.sqrt(sqsum);
     }
 
     // Normalize this vector
     public void normVector() {
         double mag = length();
         if(mag == 0) return;
-        for(int i=0; i<SIZE; i++) {
+        for(int i=0; i<vector.length; i++) {
             vector[i] /= mag;
         }
     }
@@ -62,10 +76,10 @@ public class RandomIndexingVectorArray implements Serializable {
      * Return a new vector, with all positive numbers set to 1, all negative numbers to -1
      */
     public RandomIndexingVectorArray thresholdAtOne() {
-        float[] thresholded = Arrays.copyOf(vector, SIZE);
-        for(int i=0; i<SIZE; i++) {
-            if(vector[i] < 0) vector[i] = (float)-1;
-            if(vector[i] > 0) vector[i] = (float)1;
+        float[] thresholded = new float[vector.length];
+        for(int i=0; i<vector.length; i++) {
+            if(vector[i] < 0) thresholded[i] = (float)-1;
+            if(vector[i] > 0) thresholded[i] = (float)1;
         }
         return new RandomIndexingVectorArray(thresholded);
     }
@@ -79,36 +93,57 @@ public class RandomIndexingVectorArray implements Serializable {
     }
 
     public void addContext(RandomIndexingContext context, double weight) {
-        int[] ones = context.getOnes();
-        int[] negOnes = context.getNegOnes();
-        for(int i = 0; i<ones.length; i++) {
-            vector[ones[i]] += weight;
-            vector[negOnes[i]] -= weight;
+        float w = (float) weight;
+        // Read the context's indices in place rather than through the copying getters
+        int[] nonzero = context.getNonZero();
+        int n = context.getN();
+        for(int i = 0; i<n; i++) {
+            vector[nonzero[i]] += w;
+            vector[nonzero[n + i]] -= w;
         }
     }
 
     // will add another vector onto this one
     public void add(RandomIndexingVectorArray v) {
-        for(int i=0; i<SIZE; i++) {
-            vector[i] += v.get(i);
+        float[] other = v.vector;
+        for(int i=0; i<vector.length; i++) {
+            vector[i] += other[i];
         }
     }
 
     public void multiply(RandomIndexingVectorArray v) {
-        for(int i=0; i<SIZE; i++) {
-            vector[i] *= v.get(i);
+        float[] other = v.vector;
+        for(int i=0; i<vector.length; i++) {
+            vector[i] *= other[i];
         }
     }
 
     /**
      * Return the dot product of this vector with another
-     * @param v another vector
+     * @param v another vector (of the same dimensionality)
      * @return their dot product
      */
     public double dot(RandomIndexingVectorArray v) {
+        float[] other = v.vector;
+        double sum = 0;
+        for(int i=0; i<vector.length; i++) {
+            sum += (double) vector[i] * other[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product with a context, i.e. the sum of this vector at the context's 1s minus the sum at its -1s
+     * @param context a context of the same dimensionality
+     * @return their dot product
+     */
+    public double dot(RandomIndexingContext context) {
+        int[] nonzero = context.getNonZero();
+        int n = context.getN();
         double sum = 0;
-        for(int i=0; i<SIZE; i++) {
-            sum += vector[i] * v.get(i);
+        for(int i=0; i<n; i++) {
+            sum += vector[nonzero[i]];
+            sum -= vector[nonzero[n + i]];
         }
         return sum;
     }
@@ -118,7 +153,7 @@ public class RandomIndexingVectorArray implements Serializable {
     }
 
     /**
-     * Getters: get the key set, or get an element
+     * Getters: get an element
      */
 
     public double get(int i) {